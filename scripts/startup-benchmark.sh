@@ -0,0 +1,55 @@
+#!/usr/bin/env bash
+# Time to first request: starts the service several times and measures how long it takes until
+# it answers an HTTP request (any status, the database does not have to be up for /actuator/health).
+#
+#   scripts/startup-benchmark.sh jvm|aot|native [runs] [-- extra application arguments]
+#
+#   jvm     target/app.jar                  mvn package
+#   aot     target/cds with the CDS archive mvn -Paot package
+#   native  target/productservice           mvn -Pnative native:compile
+set -euo pipefail
+
+mode=${1:?usage: $0 jvm|aot|native [runs] [-- args]}
+shift
+runs=5
+if [[ $# -gt 0 && $1 != "--" ]]; then
+  runs=$1
+  shift
+fi
+[[ ${1:-} == "--" ]] && shift
+
+port=${PORT:-8080}
+url="http://localhost:${port}/actuator/health"
+target="$(cd "$(dirname "$0")/.." && pwd)/target"
+
+start() {
+  case "$mode" in
+    jvm) exec java -jar "$target/app.jar" --server.port="$port" "$@" ;;
+    aot) cd "$target/cds" && exec java -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true -jar app-cds.jar --server.port="$port" "$@" ;;
+    native) exec "$target/productservice" --server.port="$port" "$@" ;;
+    *) echo "unknown mode $mode" >&2; exit 2 ;;
+  esac
+}
+
+times=()
+for ((run = 1; run <= runs; run++)); do
+  begin=$(date +%s%N)
+  start "$@" >"$target/startup-benchmark-$mode.log" 2>&1 &
+  pid=$!
+  until [[ $(curl -s -o /dev/null -w '%{http_code}' "$url" || true) != "000" ]]; do
+    if ! kill -0 "$pid" 2>/dev/null; then
+      echo "the service exited, see $target/startup-benchmark-$mode.log" >&2
+      exit 1
+    fi
+    sleep 0.02
+  done
+  elapsed=$(( ($(date +%s%N) - begin) / 1000000 ))
+  times+=("$elapsed")
+  echo "run $run: ${elapsed} ms"
+  kill "$pid"
+  wait "$pid" 2>/dev/null || true
+done
+
+printf '%s\n' "${times[@]}" | sort -n | awk -v mode="$mode" '
+  { t[NR] = $1; sum += $1 }
+  END { printf "%s: min %d ms, median %d ms, mean %d ms over %d runs\n", mode, t[1], t[int((NR + 1) / 2)], sum / NR, NR }'
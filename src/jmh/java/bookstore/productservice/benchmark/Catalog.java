@@ -0,0 +1,87 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.Config;
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.service.implementation.CatalogVersion;
+import bookstore.productservice.core.domain.service.implementation.ProductCache;
+import bookstore.productservice.core.domain.service.implementation.ProductEventOutbox;
+import bookstore.productservice.core.domain.service.implementation.ProductMetrics;
+import bookstore.productservice.core.domain.service.implementation.ProductSearchIndex;
+import bookstore.productservice.core.domain.service.implementation.ProductService;
+import bookstore.productservice.core.domain.service.implementation.SearchResultCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Generated products and a {@link ProductService} wired like the application, but on in-memory repositories.
+ */
+final class Catalog {
+
+    static final String[] WORDS = {
+            "history", "war", "peace", "garden", "river", "night", "winter", "empire", "ocean", "letters",
+            "journey", "kingdom", "silent", "secret", "stone", "light", "shadow", "city", "forest", "island"
+    };
+
+    private static final String[] AUTHORS = {
+            "William Shakespeare", "Jane Austen", "Leo Tolstoy", "Toni Morrison", "Haruki Murakami",
+            "Chinua Achebe", "Virginia Woolf", "Gabriel García Márquez", "Fjodor Dostojewski", "Ursula Le Guin"
+    };
+
+    private Catalog() {
+    }
+
+    static List<Product> generate(int size, long seed) {
+        Random random = new Random(seed);
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String title = word(random) + " " + word(random) + " " + word(random);
+            products.add(new Product(new UUID(seed, i), String.format("978%010d", i), title, "1st",
+                    new String[]{AUTHORS[random.nextInt(AUTHORS.length)]}, new Date(), "Penguin Classics",
+                    "A book about " + word(random) + ", " + word(random) + " and " + word(random) + ".",
+                    "English", 100 + random.nextInt(900), "cover-" + i + ".jpg", 5 + random.nextInt(4000) / 100f,
+                    1_000_000));
+        }
+        return products;
+    }
+
+    static ProductService productService(InMemoryProductRepository repository) {
+        CatalogVersion catalogVersion = new CatalogVersion();
+        ProductCache productCache = new ProductCache(100_000, Duration.ofMinutes(5));
+        productCache.setCatalogVersion(catalogVersion);
+
+        ProductSearchIndex searchIndex = new ProductSearchIndex();
+        searchIndex.setProductRepository(repository);
+        searchIndex.rebuild();
+
+        ProductEventOutbox eventOutbox = new ProductEventOutbox();
+        eventOutbox.setOutboxRepository(new DiscardingOutboxRepository());
+        eventOutbox.setObjectMapper(objectMapper());
+
+        ProductService productService = new ProductService();
+        productService.setProductRepository(repository);
+        productService.setProductCache(productCache);
+        productService.setSearchIndex(searchIndex);
+        SearchResultCache searchResultCache = new SearchResultCache(10_000, Duration.ofMinutes(1));
+        searchResultCache.setSearchIndex(searchIndex);
+        productService.setSearchResultCache(searchResultCache);
+        productService.setEventOutbox(eventOutbox);
+        productService.setMetrics(new ProductMetrics(new SimpleMeterRegistry()));
+        return productService;
+    }
+
+    // configured like the application's mapper, including the ?fields= filter
+    static ObjectMapper objectMapper() {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        new Config().productFieldsFilter().customize(builder);
+        return builder.build();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+}
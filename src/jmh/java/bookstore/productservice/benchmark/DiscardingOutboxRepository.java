@@ -0,0 +1,82 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.core.domain.model.OutboxEvent;
+import bookstore.productservice.core.domain.service.interfaces.IOutboxRepository;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the events written to the outbox and drops them, writes still pay for serializing the event.
+ */
+class DiscardingOutboxRepository implements IOutboxRepository {
+
+    private final LongAdder saved = new LongAdder();
+
+    @Override
+    public List<OutboxEvent> lockOldest(int limit) {
+        return List.of();
+    }
+
+    @Override
+    public void deleteByIds(Collection<Long> ids) {
+    }
+
+    @Override
+    public <S extends OutboxEvent> S save(S event) {
+        saved.increment();
+        return event;
+    }
+
+    @Override
+    public <S extends OutboxEvent> Iterable<S> saveAll(Iterable<S> events) {
+        events.forEach(this::save);
+        return events;
+    }
+
+    @Override
+    public Optional<OutboxEvent> findById(Long id) {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        return false;
+    }
+
+    @Override
+    public Iterable<OutboxEvent> findAll() {
+        return List.of();
+    }
+
+    @Override
+    public Iterable<OutboxEvent> findAllById(Iterable<Long> ids) {
+        return List.of();
+    }
+
+    @Override
+    public long count() {
+        return saved.sum();
+    }
+
+    @Override
+    public void deleteById(Long id) {
+    }
+
+    @Override
+    public void delete(OutboxEvent event) {
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends OutboxEvent> events) {
+    }
+
+    @Override
+    public void deleteAll() {
+    }
+
+}
@@ -0,0 +1,265 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.service.interfaces.IProductRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.repository.query.FluentQuery;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Stand-in for the database, so the benchmarks run without PostgreSQL. Stock updates are atomic per
+ * product like the single statement updates of the real repository; queries the benchmarks do not
+ * need are not supported.
+ */
+class InMemoryProductRepository implements IProductRepository {
+
+    private final ConcurrentSkipListMap<UUID, Product> products = new ConcurrentSkipListMap<>();
+    private final Map<String, UUID> idsByIsbn13 = new ConcurrentHashMap<>();
+
+    @Override
+    public List<Product> findByTitle(String title) {
+        return products.values().stream().filter(product -> title.equals(product.getTitle())).toList();
+    }
+
+    @Override
+    public Product findByIsbn13(String isbn13) {
+        UUID id = idsByIsbn13.get(isbn13);
+        return id == null ? null : products.get(id);
+    }
+
+    @Override
+    public Set<String> findExistingIsbn13s(Collection<String> isbns) {
+        Set<String> existing = new HashSet<>(isbns);
+        existing.retainAll(idsByIsbn13.keySet());
+        return existing;
+    }
+
+    @Override
+    public List<Product> findAll() {
+        return new ArrayList<>(products.values());
+    }
+
+    @Override
+    public List<Product> findAllByOrderByIdAsc(Pageable pageable) {
+        return products.values().stream().limit(pageable.getPageSize()).toList();
+    }
+
+    @Override
+    public List<Product> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable) {
+        return products.tailMap(id, false).values().stream().limit(pageable.getPageSize()).toList();
+    }
+
+    @Override
+    public <T> List<T> findAllByOrderByIdAsc(Pageable pageable, Class<T> type) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> List<T> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable, Class<T> type) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Stream<Product> streamAll() {
+        return products.values().stream();
+    }
+
+    @Override
+    public StockLevel addStock(UUID id, int quantity) {
+        Product product = products.computeIfPresent(id, (key, current) -> {
+            current.setStock(current.getStock() + quantity);
+            return current;
+        });
+        return product == null ? null : StockLevel.of(product.getAvailableStock(), product.getReserved(), product.getRowVersion());
+    }
+
+    @Override
+    public StockLevel removeStock(UUID id, int quantity) {
+        StockLevel[] stock = new StockLevel[1];
+        products.computeIfPresent(id, (key, current) -> {
+            if (current.getAvailableStock() >= quantity) {
+                current.setStock(current.getStock() - quantity);
+                stock[0] = StockLevel.of(current.getAvailableStock(), current.getReserved(), current.getRowVersion());
+            }
+            return current;
+        });
+        return stock[0];
+    }
+
+    @Override
+    public Map<UUID, StockLevel> addStocks(Map<UUID, Integer> deltas) {
+        Map<UUID, StockLevel> stocks = new HashMap<>();
+        deltas.forEach((id, delta) -> {
+            StockLevel stock = addStock(id, delta);
+            if (stock != null) {
+                stocks.put(id, stock);
+            }
+        });
+        return stocks;
+    }
+
+    @Override
+    public StockLevel reserveStock(UUID id, int quantity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public StockLevel commitReservedStock(UUID id, int quantity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public StockLevel releaseReservedStock(UUID id, int quantity) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Product> findByTitleContainingIgnoreCase(String title) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Product> findByIsbn13ContainingIgnoreCase(String isbn13) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ProductUpsertResult upsertByIsbn13(Product product) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, Long> countByAttribute(Specification<Product> specification, String attribute, int limit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<String, Long> countByStock(Specification<Product> specification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Optional<Product> findOne(Specification<Product> specification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Product> findAll(Specification<Product> specification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Page<Product> findAll(Specification<Product> specification, Pageable pageable) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Product> findAll(Specification<Product> specification, Sort sort) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long count(Specification<Product> specification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean exists(Specification<Product> specification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long delete(Specification<Product> specification) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Product, R> R findBy(Specification<Product> specification,
+                                           Function<FluentQuery.FetchableFluentQuery<S>, R> queryFunction) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <S extends Product> S save(S product) {
+        if (product.getId() == null) {
+            product.setId(UUID.randomUUID());
+        }
+        products.put(product.getId(), product);
+        idsByIsbn13.put(product.getIsbn13(), product.getId());
+        return product;
+    }
+
+    @Override
+    public <S extends Product> Iterable<S> saveAll(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        entities.forEach(product -> saved.add(save(product)));
+        return saved;
+    }
+
+    @Override
+    public Optional<Product> findById(UUID id) {
+        return Optional.ofNullable(products.get(id));
+    }
+
+    @Override
+    public boolean existsById(UUID id) {
+        return products.containsKey(id);
+    }
+
+    @Override
+    public Iterable<Product> findAllById(Iterable<UUID> ids) {
+        List<Product> found = new ArrayList<>();
+        for (UUID id : ids) {
+            Product product = products.get(id);
+            if (product != null) {
+                found.add(product);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public long count() {
+        return products.size();
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        Product removed = products.remove(id);
+        if (removed != null) {
+            idsByIsbn13.remove(removed.getIsbn13());
+        }
+    }
+
+    @Override
+    public void delete(Product product) {
+        deleteById(product.getId());
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends UUID> ids) {
+        ids.forEach(this::deleteById);
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Product> entities) {
+        entities.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteAll() {
+        products.clear();
+        idsByIsbn13.clear();
+    }
+
+}
@@ -0,0 +1,52 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.authentication.JwtUtil;
+import bookstore.authentication.Role;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authorization of a request with a valid admin token, with and without the verified token cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    private static final String SECRET = "3979244226452948404D6351665468576D5A7134743777217A25432A462D4A614E645267556B586E3272357538782F413F4428472B4B6250655368566D5971337336763979244226452948404D635166546A576E5A7234753777217A25432A462D4A614E645267556B58703273357638792F413F4428472B4B6250655368566D";
+
+    // without the cache every request verifies the signature again
+    @Param({"true", "false"})
+    private boolean cached;
+
+    private JwtUtil jwtUtil;
+
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil(SECRET, cached ? 10_000 : 0, Duration.ofHours(1));
+        String token = Jwts.builder()
+                .claim("role", Role.ADMIN.role)
+                .setExpiration(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)))
+                .signWith(SignatureAlgorithm.HS256, SECRET)
+                .compact();
+        request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+    }
+
+    @Benchmark
+    public boolean allowRequest() {
+        return jwtUtil.allowRequest(request, Role.ADMIN.role);
+    }
+
+}
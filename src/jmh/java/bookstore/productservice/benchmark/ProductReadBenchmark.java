@@ -0,0 +1,101 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+import bookstore.productservice.core.domain.service.implementation.ProductSearchIndex;
+import bookstore.productservice.core.domain.service.implementation.ProductService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search with and without the result cache and single product reads, products are served from the warmed up cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductReadBenchmark {
+
+    @Param({"10000"})
+    private int catalogSize;
+
+    private ProductService productService;
+
+    private ProductSearchIndex searchIndex;
+
+    private UUID[] ids;
+
+    @Setup
+    public void setUp() {
+        InMemoryProductRepository repository = new InMemoryProductRepository();
+        List<Product> products = Catalog.generate(catalogSize, 42);
+        repository.saveAll(products);
+        productService = Catalog.productService(repository);
+        searchIndex = new ProductSearchIndex();
+        searchIndex.setProductRepository(repository);
+        searchIndex.rebuild();
+
+        ids = products.stream().map(Product::getId).toArray(UUID[]::new);
+        for (UUID id : ids) {
+            productService.getProduct(id);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Query {
+
+        // a whole term, a prefix and two terms that both have to match
+        @Param({"history", "hist", "history war"})
+        private String query;
+
+    }
+
+    // repeated queries, answered by the search result cache
+    @Benchmark
+    public List<Product> searchProduct(Query query) throws Exception {
+        return productService.searchProduct(query.query);
+    }
+
+    @Benchmark
+    public List<Product> searchIndex(Query query) {
+        return searchIndex.search(query.query, 50);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Prefix {
+
+        // a cached one letter prefix, a word start and a longer prefix
+        @Param({"h", "hist", "history wa"})
+        private String prefix;
+
+    }
+
+    // sampled, so the report has the p99 latency of a keystroke
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<ProductSuggestion> suggestProducts(Prefix prefix) {
+        return productService.suggestProducts(prefix.prefix, 10);
+    }
+
+    @Benchmark
+    public Product getProduct() {
+        return productService.getProduct(randomId());
+    }
+
+    @Benchmark
+    public int getStock() throws Exception {
+        return productService.getStock(randomId());
+    }
+
+    private UUID randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+}
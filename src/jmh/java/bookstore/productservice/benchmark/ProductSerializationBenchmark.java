@@ -0,0 +1,41 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.core.domain.model.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing product lists to JSON, the size of a single product, a default page and the largest page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductSerializationBenchmark {
+
+    @Param({"1", "50", "500"})
+    private int size;
+
+    private ObjectWriter writer;
+
+    private List<Product> products;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = Catalog.objectMapper();
+        writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, Product.class));
+        products = Catalog.generate(size, 1);
+    }
+
+    @Benchmark
+    public byte[] writeProducts() throws Exception {
+        return writer.writeValueAsBytes(products);
+    }
+
+}
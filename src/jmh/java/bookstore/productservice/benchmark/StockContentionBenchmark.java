@@ -0,0 +1,49 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.service.implementation.ProductService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stock changes from several threads, either all on one product or spread over many. Every operation
+ * adds and removes one unit, so stock never runs out. Measures the service side of a stock change:
+ * the atomic update, the outbox event and the cache invalidation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class StockContentionBenchmark {
+
+    @Param({"1", "1000"})
+    private int hotProducts;
+
+    private ProductService productService;
+
+    private UUID[] ids;
+
+    @Setup
+    public void setUp() {
+        InMemoryProductRepository repository = new InMemoryProductRepository();
+        List<Product> products = Catalog.generate(hotProducts, 7);
+        repository.saveAll(products);
+        productService = Catalog.productService(repository);
+        ids = products.stream().map(Product::getId).toArray(UUID[]::new);
+    }
+
+    @Benchmark
+    public int addAndRemoveStock() throws Exception {
+        UUID id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        productService.addStock(id, 1);
+        return productService.removeStock(id, 1);
+    }
+
+}
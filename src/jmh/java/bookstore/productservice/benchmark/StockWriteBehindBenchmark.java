@@ -0,0 +1,68 @@
+package bookstore.productservice.benchmark;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.service.implementation.ProductService;
+import bookstore.productservice.core.domain.service.implementation.StockWriteBehind;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A burst of single unit stock increases on one title from many scanners. In write-behind mode every
+ * increase is acknowledged once it is journaled and synced to disk, so this measures the group commit
+ * of the journal; the batched database update is not part of it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class StockWriteBehindBenchmark {
+
+    private ProductService productService;
+
+    private StockWriteBehind stockWriteBehind;
+
+    private Path journalDirectory;
+
+    private UUID id;
+
+    @Setup
+    public void setUp() throws IOException {
+        InMemoryProductRepository repository = new InMemoryProductRepository();
+        List<Product> products = Catalog.generate(1, 11);
+        repository.saveAll(products);
+        id = products.get(0).getId();
+
+        journalDirectory = Files.createTempDirectory("stock-journal");
+        // never replayed, so nothing is flushed and every increase stays in the journal
+        stockWriteBehind = new StockWriteBehind(null, journalDirectory);
+        productService = Catalog.productService(repository);
+        productService.setStockWriteBehind(stockWriteBehind);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        stockWriteBehind.close();
+        try (Stream<Path> files = Files.walk(journalDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int addStock() throws Exception {
+        return productService.addStock(id, 1);
+    }
+
+}
@@ -4,7 +4,6 @@ import bookstore.productservice.port.product.exception.NotAuthorizedException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.AllArgsConstructor;
-import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
@@ -12,7 +11,7 @@ import org.springframework.web.servlet.HandlerInterceptor;
 @AllArgsConstructor
 public class JwtRoleInterceptor implements HandlerInterceptor {
 
-    private Environment environment;
+    private JwtUtil jwtUtil;
     private String role;
 
     @Override
@@ -23,7 +22,7 @@ public class JwtRoleInterceptor implements HandlerInterceptor {
         }
 
         // other requests need certain role
-        if (!JwtUtil.allowRequest(request, environment.getProperty("jwt.secret"), role)) {
+        if (!jwtUtil.allowRequest(request, role)) {
             throw new NotAuthorizedException();
         }
         return HandlerInterceptor.super.preHandle(request, response, handler);
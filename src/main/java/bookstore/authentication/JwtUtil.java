@@ -1,61 +1,174 @@
 package bookstore.authentication;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
 
-@Component
-public class JwtUtil {
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-    public static boolean allowRequest(HttpServletRequest request, String signingKey, String neededRole) {
+public class JwtUtil implements MeterBinder {
+
+    // the parser holds the decoded signing key and is thread safe, so it is built once
+    private final JwtParser parser;
+
+    // sha-256 of the token -> verified token, an entry lives until the token expires
+    private final Cache<String, VerifiedToken> verifiedTokens;
+
+    private final LongAdder verifications = new LongAdder();
+    private final LongAdder verificationNanos = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public JwtUtil(String signingKey, long maximumCacheSize, Duration maximumCacheTtl) {
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+        this.verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(maximumCacheSize)
+                .expireAfter(new UntilTokenExpires(maximumCacheTtl))
+                .recordStats()
+                .build();
+    }
+
+    public boolean allowRequest(HttpServletRequest request, String neededRole) {
         final String authHeader = request.getHeader("Authorization");
         final String jwt;
         final String role;
 
         if (authHeader == null || !authHeader.startsWith("Bearer ")) { // yes, with the space after Bearer
+            failures.increment();
             return false;
         }
 
         jwt = authHeader.substring(7); // 7 because "Bearer "
-        Jws<Claims> claims;
+        String tokenHash = hash(jwt);
+        VerifiedToken token = verifiedTokens.getIfPresent(tokenHash);
 
-        try {
-            // parseJwt throws an exception if the token is invalid
-            claims = parseJwt(jwt, signingKey);
-        }catch (Exception e) {
-            return false;
-        }
+        if (token == null) {
+            Jws<Claims> claims;
 
-        // if the token is valid, try to get the role from the token
-        try {
-            role = claims.getBody().get("role").toString();
-        }catch (Exception e) {
-           return false;
+            try {
+                // parseJwt throws an exception if the token is invalid
+                claims = parseJwt(jwt);
+            }catch (Exception e) {
+                failures.increment();
+                return false;
+            }
+
+            // if the token is valid, try to get the role from the token
+            try {
+                role = claims.getBody().get("role").toString();
+            }catch (Exception e) {
+               failures.increment();
+               return false;
+            }
+
+            token = new VerifiedToken(role, claims.getBody().getExpiration());
+            verifiedTokens.put(tokenHash, token);
         }
 
-        if (role.equals("ADMIN")) {
+        if (token.role.equals("ADMIN")) {
             return true;
-        }else if (role.equals(neededRole)) {
+        }else if (token.role.equals(neededRole)) {
             return true;
         }else {
             return false;
         }
     }
 
-    private static Jws<Claims> parseJwt(String token, String key) {
+    public Map<String, Object> stats() {
+        CacheStats stats = verifiedTokens.stats();
+        long count = verifications.sum();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", verifiedTokens.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("verifications", count);
+        result.put("averageVerificationMicros", count == 0 ? 0.0 : verificationNanos.sum() / 1000.0 / count);
+        return result;
+    }
+
+    // read from the counters above when scraped, nothing is added to the request path
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, verifiedTokens, "jwt");
+        FunctionTimer.builder("productservice.jwt.verifications", verifications, LongAdder::sum,
+                        adder -> verificationNanos.sum(), TimeUnit.NANOSECONDS)
+                .description("Signature verifications of tokens not found in the cache")
+                .register(registry);
+        FunctionCounter.builder("productservice.jwt.failures", failures, LongAdder::sum)
+                .description("Requests without a valid token")
+                .register(registry);
+    }
+
+    private Jws<Claims> parseJwt(String token) {
+        long start = System.nanoTime();
         try {
-            Jws<Claims> jwt = Jwts.parserBuilder()
-                    .setSigningKey(key)
-                    .build()
-                    .parseClaimsJws(token);
-
-            return jwt;
-        }catch (Exception e) {
-            throw e;
+            return parser.parseClaimsJws(token);
+        } finally {
+            verifications.increment();
+            verificationNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record VerifiedToken(String role, Date expiration) {
+    }
+
+    private static class UntilTokenExpires implements Expiry<String, VerifiedToken> {
+
+        private final long maximumNanos;
+
+        UntilTokenExpires(Duration maximumTtl) {
+            this.maximumNanos = maximumTtl.toNanos();
+        }
+
+        @Override
+        public long expireAfterCreate(String key, VerifiedToken token, long currentTime) {
+            if (token.expiration() == null) {
+                return maximumNanos;
+            }
+            long untilExpiration = Duration.ofMillis(token.expiration().getTime() - System.currentTimeMillis()).toNanos();
+            return Math.max(0, Math.min(untilExpiration, maximumNanos));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, VerifiedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String key, VerifiedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
         }
     }
 }
@@ -0,0 +1,50 @@
+package bookstore.productservice;
+
+import bookstore.productservice.core.domain.service.implementation.ProductFacetRepositoryImpl;
+import bookstore.productservice.core.domain.service.implementation.ProductStockRepositoryImpl;
+import bookstore.productservice.core.domain.service.implementation.ProductUpsertRepositoryImpl;
+import bookstore.productservice.core.domain.service.interfaces.IProductRepository;
+import bookstore.productservice.core.domain.service.interfaces.ProductFacetRepository;
+import bookstore.productservice.core.domain.service.interfaces.ProductStockRepository;
+import bookstore.productservice.core.domain.service.interfaces.ProductUpsertRepository;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.core.support.RepositoryComposition.RepositoryFragments;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.data.repository.core.support.RepositoryFragment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Spring Data 3.0.0 loses the custom fragments of a repository (the ...Impl classes) when the context is
+ * processed ahead of time, and the AOT start then fails to derive queries for upsertByIsbn13 and friends.
+ * Hands them to the factory bean of {@link IProductRepository} before it builds the repository.
+ * Without AOT Spring Data finds them itself and this does nothing.
+ */
+@Component
+public class AotRepositoryFragments implements BeanPostProcessor, BeanFactoryAware {
+
+    private AutowireCapableBeanFactory beanFactory;
+
+    @Override
+    public void setBeanFactory(BeanFactory beanFactory) {
+        this.beanFactory = (AutowireCapableBeanFactory) beanFactory;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (AotDetector.useGeneratedArtifacts() && bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factory
+                && factory.getObjectType() == IProductRepository.class) {
+            JdbcTemplate jdbcTemplate = beanFactory.getBean(JdbcTemplate.class);
+            factory.setRepositoryFragments(RepositoryFragments.of(
+                    RepositoryFragment.implemented(ProductUpsertRepository.class, new ProductUpsertRepositoryImpl(jdbcTemplate)),
+                    RepositoryFragment.implemented(ProductFacetRepository.class, beanFactory.createBean(ProductFacetRepositoryImpl.class)),
+                    RepositoryFragment.implemented(ProductStockRepository.class, new ProductStockRepositoryImpl(jdbcTemplate))));
+        }
+        return bean;
+    }
+
+}
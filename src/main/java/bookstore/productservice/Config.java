@@ -1,13 +1,22 @@
 package bookstore.productservice;
 
+import bookstore.productservice.core.domain.model.Product;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 public class Config {
 
@@ -29,6 +38,60 @@ public class Config {
                 .with("cartservice.checkStock");
     }
 
+    // stock checks are consumed in batches, so one query answers many carts
+    @Bean
+    public SimpleRabbitListenerContainerFactory stockCheckContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${productservice.stock-check.batch-size:50}") int batchSize,
+            @Value("${productservice.stock-check.prefetch:250}") int prefetch,
+            @Value("${productservice.stock-check.concurrency:2}") int concurrency,
+            @Value("${productservice.stock-check.max-concurrency:8}") int maxConcurrency,
+            @Value("${productservice.stock-check.receive-timeout:10ms}") Duration receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setPrefetchCount(Math.max(prefetch, batchSize));
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(maxConcurrency);
+        // how long a consumer waits for the batch to fill up before handing over what it has
+        factory.setReceiveTimeout(receiveTimeout.toMillis());
+        return factory;
+    }
+
+    @Bean
+    public FanoutExchange cacheInvalidationExchange() {
+        return new FanoutExchange("productservice.cacheinvalidation");
+    }
+
+    // every instance gets its own exclusive, auto-deleted queue so each replica sees every invalidation
+    @Bean
+    public Queue cacheInvalidationQueue() {
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding cacheInvalidationBinding(FanoutExchange cacheInvalidationExchange,
+                                            Queue cacheInvalidationQueue) {
+        return BindingBuilder.bind(cacheInvalidationQueue)
+                .to(cacheInvalidationExchange);
+    }
+
+    // product changes for other services, published from the outbox by ProductEventRelay
+    @Bean
+    public TopicExchange productEventExchange() {
+        return new TopicExchange("productservice.events");
+    }
+
+    // products are written in full unless a request narrows them down with ?fields=
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer productFieldsFilter() {
+        return builder -> builder.filters(new SimpleFilterProvider()
+                .addFilter(Product.JSON_FILTER, SimpleBeanPropertyFilter.serializeAll()));
+    }
+
     @Bean
     public MessageConverter jackson2MessageConverter() {
         return new Jackson2JsonMessageConverter();
@@ -0,0 +1,33 @@
+package bookstore.productservice;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Ends the training run that records the class data sharing archive (see the aot profile in pom.xml)
+ * once the context is refreshed. Every class needed to start is loaded by then, and nothing has
+ * connected to the database or the broker yet.
+ * <p>
+ * Checks the property itself instead of being conditional on it, AOT processing fixes conditions at build time.
+ */
+@Component
+public class ExitOnRefresh {
+
+    @Value("${productservice.startup.exit-on-refresh:false}")
+    private boolean exitOnRefresh;
+
+    // before the scheduled tasks are started on the same event
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onRefresh(ContextRefreshedEvent event) {
+        if (exitOnRefresh) {
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+
+}
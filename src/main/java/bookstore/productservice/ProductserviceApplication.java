@@ -1,16 +1,23 @@
 package bookstore.productservice;
 
 import bookstore.authentication.JwtRoleInterceptor;
+import bookstore.authentication.JwtUtil;
 import bookstore.authentication.Role;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.time.Duration;
+
 @SpringBootApplication
+@EnableScheduling
+@ImportRuntimeHints(ProductserviceRuntimeHints.class)
 public class ProductserviceApplication {
 
 	@Autowired
@@ -21,12 +28,21 @@ public class ProductserviceApplication {
 	}
 
 	@Bean
-	public WebMvcConfigurer interceptorConfiguration() {
+	public JwtUtil jwtUtil() {
+		return new JwtUtil(environment.getProperty("jwt.secret"),
+				environment.getProperty("jwt.cache.maximum-size", Long.class, 10000L),
+				environment.getProperty("jwt.cache.maximum-ttl", Duration.class, Duration.ofHours(1)));
+	}
+
+	@Bean
+	public WebMvcConfigurer interceptorConfiguration(JwtUtil jwtUtil) {
 		return new WebMvcConfigurer() {
 			@Override
 			public void addInterceptors(InterceptorRegistry registry) {
-				registry.addInterceptor(new JwtRoleInterceptor(environment, Role.ADMIN.role))
-						.addPathPatterns("/**");
+				registry.addInterceptor(new JwtRoleInterceptor(jwtUtil, Role.ADMIN.role))
+						.addPathPatterns("/**")
+						// read-only lookup, POST only to carry the id list
+						.excludePathPatterns("/api/v1/products/batch");
 			}
 		};
 	}
@@ -0,0 +1,70 @@
+package bookstore.productservice;
+
+import bookstore.productservice.core.domain.model.*;
+import bookstore.productservice.core.domain.service.implementation.ProductFacetRepositoryImpl;
+import bookstore.productservice.core.domain.service.implementation.ProductFunctionContributor;
+import bookstore.productservice.port.product.CacheInvalidationMessage;
+import bookstore.productservice.port.product.CustomMessage;
+import bookstore.productservice.port.product.CustomReply;
+import bookstore.productservice.port.product.dto.ProductBatch;
+import bookstore.productservice.port.product.dto.ProductPage;
+import bookstore.productservice.port.product.dto.SearchRequest;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.data.projection.TargetAware;
+
+/**
+ * What the native image (and AOT processing) cannot find on its own: types Jackson reads and writes
+ * without a controller signature naming them, the projection proxy of the listings, the scripts of
+ * spring.sql.init and the classes the JWT library loads by name.
+ */
+public class ProductserviceRuntimeHints implements RuntimeHintsRegistrar {
+
+    // the Lombok DTOs, mostly written through MappingJacksonValue or sent over RabbitMQ
+    private static final Class<?>[] JSON_TYPES = {
+            Product.class, ProductSummary.class, ProductEvent.class, ProductFilter.class, ProductFilterResult.class,
+            ProductImportResult.class, ProductUpsertResult.class, ProductSuggestion.class, StockReservation.class,
+            CacheInvalidationMessage.class, CustomMessage.class, CustomReply.class,
+            ProductBatch.class, ProductPage.class, SearchRequest.class
+    };
+
+    // jjwt 0.11 creates its implementation and codecs reflectively
+    private static final String[] JWT_TYPES = {
+            "io.jsonwebtoken.impl.DefaultJwtParserBuilder",
+            "io.jsonwebtoken.impl.DefaultJwtBuilder",
+            "io.jsonwebtoken.impl.compression.DeflateCompressionCodec",
+            "io.jsonwebtoken.impl.compression.GzipCompressionCodec",
+            "io.jsonwebtoken.jackson.io.JacksonSerializer",
+            "io.jsonwebtoken.jackson.io.JacksonDeserializer"
+    };
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        bindingRegistrar.registerReflectionHints(hints.reflection(), JSON_TYPES);
+
+        // findAllByOrderByIdAsc(pageable, ProductSummary.class) only names the projection at runtime
+        hints.proxies().registerJdkProxy(AopProxyUtils.completeJdkProxyInterfaces(ProductSummary.class, TargetAware.class));
+
+        for (String type : JWT_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+        hints.resources().registerPattern("META-INF/services/io.jsonwebtoken.*");
+
+        // loaded by Hibernate through the ServiceLoader
+        hints.reflection().registerType(ProductFunctionContributor.class, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        hints.resources().registerPattern("META-INF/services/org.hibernate.boot.model.FunctionContributor");
+
+        // created by AotRepositoryFragments, the entity manager is injected into its field
+        hints.reflection().registerType(ProductFacetRepositoryImpl.class,
+                MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.DECLARED_FIELDS);
+
+        hints.resources().registerPattern("db/*.sql");
+    }
+
+}
@@ -0,0 +1,78 @@
+package bookstore.productservice;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.time.Duration;
+
+/**
+ * Sends the reads of a client to the primary for a while after it changed something, so it sees its
+ * own writes although the replicas lag behind. The deadline is kept in a cookie, so it holds no matter
+ * which instance serves the next request.
+ */
+class ReadYourWrites implements AsyncHandlerInterceptor {
+
+    static final String COOKIE = "productservice-primary-until";
+
+    private static final ThreadLocal<Boolean> PRIMARY_REQUIRED = new ThreadLocal<>();
+
+    private final Duration window;
+
+    ReadYourWrites(Duration window) {
+        this.window = window;
+    }
+
+    static boolean primaryRequired() {
+        return Boolean.TRUE.equals(PRIMARY_REQUIRED.get());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        long now = System.currentTimeMillis();
+        if (request.getMethod().equals("GET") || request.getMethod().equals("HEAD")) {
+            if (primaryUntil(request) > now) {
+                PRIMARY_REQUIRED.set(true);
+            }
+            return true;
+        }
+
+        // set before the handler runs, the response may be committed by then; a failed write only costs a few primary reads
+        Cookie cookie = new Cookie(COOKIE, String.valueOf(now + window.toMillis()));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setMaxAge((int) Math.max(1, window.toSeconds()));
+        response.addCookie(cookie);
+        return true;
+    }
+
+    // an async handler such as the NDJSON export gives the thread back before afterCompletion runs,
+    // the next request served on it must not be routed to the primary
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        PRIMARY_REQUIRED.remove();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        PRIMARY_REQUIRED.remove();
+    }
+
+    private static long primaryUntil(HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return 0;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (cookie.getName().equals(COOKIE)) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+}
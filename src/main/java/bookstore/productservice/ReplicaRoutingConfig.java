@@ -0,0 +1,84 @@
+package bookstore.productservice;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read replicas, enabled by listing them in productservice.datasource.replica-urls. Read-only
+ * transactions (listings, the filter and the export) go to the replicas, writes, stock checks and
+ * cache fills stay on the primary configured under spring.datasource. The replicas use the
+ * credentials of the primary.
+ */
+@Configuration
+@ConditionalOnProperty(name = "productservice.datasource.replica-urls")
+public class ReplicaRoutingConfig implements WebMvcConfigurer {
+
+    @Value("${productservice.datasource.replica-urls}")
+    private List<String> replicaUrls;
+
+    @Value("${productservice.datasource.replica-pool-size:20}")
+    private int replicaPoolSize;
+
+    // a replica that cannot be reached quickly is skipped rather than waited for
+    @Value("${productservice.datasource.replica-connection-timeout:2000}")
+    private long replicaConnectionTimeout;
+
+    @Value("${productservice.datasource.max-replica-lag:10s}")
+    private Duration maxReplicaLag;
+
+    @Value("${productservice.datasource.read-your-writes:2s}")
+    private Duration readYourWrites;
+
+    // built here because the routing data source below takes the place of the auto-configured one
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource) {
+        List<HikariDataSource> replicas = new ArrayList<>(replicaUrls.size());
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + (i + 1));
+            replica.setJdbcUrl(replicaUrls.get(i).trim());
+            replica.setUsername(primaryDataSource.getUsername());
+            replica.setPassword(primaryDataSource.getPassword());
+            replica.setDriverClassName(primaryDataSource.getDriverClassName());
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setConnectionTimeout(replicaConnectionTimeout);
+            replica.setReadOnly(true);
+            // a replica that is down at startup must not keep the service from starting
+            replica.setInitializationFailTimeout(-1);
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxReplicaLag);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ReadYourWrites(readYourWrites)).addPathPatterns("/**");
+    }
+
+}
@@ -0,0 +1,155 @@
+package bookstore.productservice;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only transactions to the replicas, round-robin over the healthy ones, and everything
+ * else to the primary. A replica is unhealthy while it cannot be reached or lags more than maxLag
+ * behind; without a healthy replica, or when a replica fails to hand out a connection, reads go to
+ * the primary. Has to sit behind a LazyConnectionDataSourceProxy, so the connection is only taken
+ * once the transaction is marked read-only.
+ */
+@Slf4j
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements MeterBinder {
+
+    static final String PRIMARY = "primary";
+
+    // 0 while the replica has replayed everything it received, otherwise the age of the last replayed transaction
+    private static final String LAG_QUERY = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() " +
+            "THEN 0 ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0) END";
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final Duration maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicaPools, Duration maxLag) {
+        this.primary = primary;
+        this.maxLag = maxLag;
+        this.replicas = new ArrayList<>(replicaPools.size());
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (HikariDataSource pool : replicaPools) {
+            replicas.add(new Replica(pool.getPoolName(), pool));
+            targets.put(pool.getPoolName(), pool);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || ReadYourWrites.primaryRequired()) {
+            return PRIMARY;
+        }
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+            if (replica.healthy) {
+                return replica.name;
+            }
+        }
+        return PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = determineCurrentLookupKey();
+        DataSource target = getResolvedDataSources().get(key);
+        try {
+            return target.getConnection();
+        } catch (SQLException e) {
+            if (target == primary) {
+                throw e;
+            }
+            markUnhealthy(key, e);
+            return primary.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        // the pools are configured with their credentials
+        return getConnection();
+    }
+
+    @Scheduled(fixedDelayString = "${productservice.datasource.health-check-interval-millis:5000}")
+    public void checkHealth() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.pool.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet lag = statement.executeQuery(LAG_QUERY)) {
+                lag.next();
+                healthy = lag.getDouble(1) * 1000 <= maxLag.toMillis();
+                if (!healthy && replica.healthy) {
+                    log.warn("Replica {} lags {}s behind, reads go elsewhere", replica.name, lag.getDouble(1));
+                }
+            } catch (SQLException e) {
+                healthy = false;
+                if (replica.healthy) {
+                    log.warn("Replica {} is unreachable, reads go elsewhere", replica.name, e);
+                }
+            }
+            if (healthy && !replica.healthy) {
+                log.info("Replica {} is back", replica.name);
+            }
+            replica.healthy = healthy;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            Gauge.builder("productservice.datasource.replica.healthy", replica, r -> r.healthy ? 1 : 0)
+                    .description("Whether reads are sent to the replica")
+                    .tag("replica", replica.name)
+                    .register(registry);
+        }
+    }
+
+    // picked up as the destroy method of the bean
+    public void close() {
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    private void markUnhealthy(Object key, SQLException e) {
+        for (Replica replica : replicas) {
+            if (replica.name.equals(key)) {
+                replica.healthy = false;
+                log.warn("Replica {} did not hand out a connection, reading from the primary", replica.name, e);
+            }
+        }
+    }
+
+    private static class Replica {
+
+        private final String name;
+        private final HikariDataSource pool;
+        // optimistic until the first check, a failing replica is taken out on its first connection attempt
+        private volatile boolean healthy = true;
+
+        Replica(String name, HikariDataSource pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+    }
+
+}
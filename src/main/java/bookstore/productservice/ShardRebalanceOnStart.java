@@ -0,0 +1,59 @@
+package bookstore.productservice;
+
+import bookstore.productservice.core.domain.service.implementation.ShardRebalancer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+
+/**
+ * Rebalances the shards when the service is started with productservice.sharding.rebalance=true, and ends it.
+ * The products are moved in the first lifecycle phase, before the RabbitMQ listeners start, and the service
+ * exits on the refresh event before the scheduled tasks (outbox relay, reservation sweeper, stock delta
+ * flusher) start. Nothing but the rebalancing writes products in the meantime.
+ */
+@Slf4j
+class ShardRebalanceOnStart implements SmartLifecycle, ApplicationListener<ContextRefreshedEvent>, Ordered {
+
+    private final ShardRebalancer rebalancer;
+    private volatile boolean running;
+
+    ShardRebalanceOnStart(ShardRebalancer rebalancer) {
+        this.rebalancer = rebalancer;
+    }
+
+    @Override
+    public void start() {
+        long moved = rebalancer.rebalance();
+        log.info("Rebalancing moved {} products", moved);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+}
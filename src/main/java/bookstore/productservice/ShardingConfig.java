@@ -0,0 +1,137 @@
+package bookstore.productservice;
+
+import bookstore.productservice.core.domain.service.implementation.IsbnDirectory;
+import bookstore.productservice.core.domain.service.implementation.ShardRebalancer;
+import bookstore.productservice.core.domain.service.implementation.ShardRouter;
+import bookstore.productservice.core.domain.service.implementation.ShardedProductRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sharded product storage, enabled by listing the shards in productservice.sharding.shard-urls.
+ * Products are spread over the shards by a hash of their id, see {@link ShardedProductRepository}.
+ * Everything else (isbn13 directory, outbox, reservations, journal checkpoints) stays in the primary
+ * database configured under spring.datasource. The shards use the credentials of the primary.
+ * <p>
+ * After shards were added or retired, start the service once with productservice.sharding.rebalance=true
+ * while no other instance is running: it moves the products to their new shards and exits, see
+ * {@link ShardRebalanceOnStart}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "productservice.sharding.shard-urls")
+public class ShardingConfig {
+
+    @Value("${productservice.sharding.shard-urls}")
+    private List<String> shardUrls;
+
+    // a product belongs to the shard with the best score for its name, by default shard-1, shard-2, ...
+    @Value("${productservice.sharding.shard-names:}")
+    private List<String> shardNames;
+
+    // shards that are left out of shard-urls, only read by the rebalancing
+    @Value("${productservice.sharding.retired-shard-urls:}")
+    private List<String> retiredShardUrls;
+
+    @Value("${productservice.sharding.pool-size:10}")
+    private int poolSize;
+
+    @Value("${productservice.sharding.fan-out-threads:16}")
+    private int fanOutThreads;
+
+    @Value("${productservice.sharding.rebalance-batch-size:1000}")
+    private int rebalanceBatchSize;
+
+    private final DataSourceProperties primary;
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    private List<JdbcTemplate> shards;
+
+    public ShardingConfig(DataSourceProperties primary) {
+        this.primary = primary;
+    }
+
+    @Bean
+    public ShardRouter shardRouter() {
+        if (!shardNames.isEmpty() && shardNames.size() != shardUrls.size()) {
+            throw new IllegalStateException("productservice.sharding.shard-names needs one name per shard url");
+        }
+        List<String> names = new ArrayList<>(shardUrls.size());
+        for (int i = 0; i < shardUrls.size(); i++) {
+            names.add(shardNames.isEmpty() ? "shard-" + (i + 1) : shardNames.get(i).trim());
+        }
+        return new ShardRouter(names);
+    }
+
+    @Bean
+    public IsbnDirectory isbnDirectory(JdbcTemplate jdbcTemplate) {
+        new ResourceDatabasePopulator(new ClassPathResource("db/isbn-directory.sql")).execute(jdbcTemplate.getDataSource());
+        return new IsbnDirectory(jdbcTemplate);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService shardQueryExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("shard-query-");
+        threadFactory.setDaemon(true);
+        return Executors.newFixedThreadPool(fanOutThreads, threadFactory);
+    }
+
+    // takes the place of the Spring Data repository wherever IProductRepository is injected
+    @Bean
+    @Primary
+    public ShardedProductRepository shardedProductRepository(ShardRouter shardRouter, IsbnDirectory isbnDirectory,
+                                                             ExecutorService shardQueryExecutor) {
+        return new ShardedProductRepository(shards(), shardRouter, isbnDirectory, shardQueryExecutor);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "productservice.sharding.rebalance", havingValue = "true")
+    public ShardRebalanceOnStart shardRebalanceOnStart(ShardRouter shardRouter) {
+        List<JdbcTemplate> retired = connect(retiredShardUrls, "retired-shard-");
+        return new ShardRebalanceOnStart(new ShardRebalancer(shards(), retired, shardRouter, rebalanceBatchSize));
+    }
+
+    @PreDestroy
+    public void close() {
+        pools.forEach(HikariDataSource::close);
+    }
+
+    private synchronized List<JdbcTemplate> shards() {
+        if (shards == null) {
+            shards = connect(shardUrls, "shard-");
+        }
+        return shards;
+    }
+
+    // creates the products table of a shard that does not have one yet
+    private List<JdbcTemplate> connect(List<String> urls, String poolPrefix) {
+        List<JdbcTemplate> templates = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource pool = new HikariDataSource();
+            pool.setPoolName(poolPrefix + (i + 1));
+            pool.setJdbcUrl(urls.get(i).trim());
+            pool.setUsername(primary.determineUsername());
+            pool.setPassword(primary.determinePassword());
+            pool.setDriverClassName(primary.determineDriverClassName());
+            pool.setMaximumPoolSize(poolSize);
+            pools.add(pool);
+            new ResourceDatabasePopulator(new ClassPathResource("db/shard-schema.sql")).execute(pool);
+            templates.add(new JdbcTemplate(pool));
+        }
+        return templates;
+    }
+
+}
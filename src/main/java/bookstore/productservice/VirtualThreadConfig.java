@@ -0,0 +1,73 @@
+package bookstore.productservice;
+
+import org.springframework.amqp.rabbit.config.AbstractRabbitListenerContainerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs request handling, the RabbitMQ listeners and async MVC requests (the catalog export) on
+ * virtual threads, enabled with productservice.virtual-threads.enabled=true on Java 21 or later.
+ * A request blocked on JDBC then parks a virtual thread instead of holding one of Tomcat's 200
+ * platform threads; the connection pool is what limits concurrent database work.
+ * The API is looked up at runtime because the class files still target Java 17.
+ */
+@Configuration
+@ConditionalOnProperty(name = "productservice.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadRequestHandling() {
+        return protocolHandler -> protocolHandler.setExecutor(threadPerTaskExecutor(virtualThreadFactory("http-")));
+    }
+
+    // replaces the pooled executor Spring MVC uses for StreamingResponseBody and other async requests
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new SimpleAsyncTaskExecutor(virtualThreadFactory("task-"));
+    }
+
+    // static, so the container factories are post processed even though they are created early
+    @Bean
+    public static BeanPostProcessor virtualThreadListenerContainers() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof AbstractRabbitListenerContainerFactory<?> factory) {
+                    factory.setTaskExecutor(new SimpleAsyncTaskExecutor(virtualThreadFactory(beanName + "-")));
+                }
+                return bean;
+            }
+        };
+    }
+
+    static ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on " + Runtime.version(), e);
+        }
+    }
+
+    private static ExecutorService threadPerTaskExecutor(ThreadFactory threadFactory) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on " + Runtime.version(), e);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package bookstore.productservice.core.domain.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A {@link ProductEvent} waiting to be published, written in the same transaction as the change it describes.
+ */
+@Entity
+@Table(name = "product_outbox")
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private UUID productId;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private ProductEvent.Type type;
+
+    // the serialized event, so the relay publishes exactly what was committed
+    @Column(nullable = false, columnDefinition = "text")
+    private String payload;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    public OutboxEvent(UUID productId, ProductEvent.Type type, String payload, Instant createdAt) {
+        this(null, productId, type, payload, createdAt);
+    }
+
+}
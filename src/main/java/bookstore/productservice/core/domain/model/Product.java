@@ -1,23 +1,39 @@
 package bookstore.productservice.core.domain.model;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.util.Date;
 import java.util.UUID;
 
 @Entity
-@Table(name = "products")
+// b-tree indexes of the filter endpoint, the GIN index on authors is created by db/indexes.sql
+@Table(name = "products", indexes = {
+        @Index(name = "products_language_idx", columnList = "language"),
+        @Index(name = "products_publishing_house_idx", columnList = "publishingHouse"),
+        @Index(name = "products_price_idx", columnList = "price"),
+        @Index(name = "products_publishing_date_idx", columnList = "publishingDate")
+})
+// updates only set the changed columns, a repricing is a two column UPDATE (price and row_version)
+@DynamicUpdate
 @AllArgsConstructor
 @NoArgsConstructor
+@JsonFilter(Product.JSON_FILTER)
 public class Product {
 
+    // lets a request pick the serialized fields (?fields=), every field is written by default
+    public static final String JSON_FILTER = "productFields";
+
     @Id
     @GeneratedValue(strategy= GenerationType.UUID)
-    @Getter private UUID id;
+    @Getter @Setter private UUID id;
 
     @Column(nullable = false, unique = true)
     @Getter private String isbn13;
@@ -52,9 +68,40 @@ public class Product {
     @Column(nullable = false)
     @Getter @Setter private float price;
 
+    // written as sent, read as the available stock (getAvailableStock)
     @Column(nullable = false)
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     @Getter @Setter private int stock;
 
+    // optimistic lock, "version" is already taken by the edition of the book
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    @Getter private long rowVersion;
+
+    // units held by open reservations, only written by the reservation queries of the repository
+    @Column(nullable = false, columnDefinition = "integer default 0", insertable = false, updatable = false)
+    @JsonIgnore
+    @Getter private int reserved;
+
+    public Product(UUID id, String isbn13, String title, String version, String[] authors, Date publishingDate,
+                   String publishingHouse, String description, String language, int pages, String coverUrl,
+                   float price, int stock) {
+        this(id, isbn13, title, version, authors, publishingDate, publishingHouse, description, language, pages,
+                coverUrl, price, stock, 0, 0);
+    }
+
+    // what can still be sold, stock that is not held by a reservation; the stock every read reports
+    @JsonProperty(value = "stock", access = JsonProperty.Access.READ_ONLY)
+    public int getAvailableStock() {
+        return stock - reserved;
+    }
+
+    // brings a copy kept in memory up to date with a stock statement, which does not load the product
+    public void apply(StockLevel level) {
+        stock = level.getAvailable() + level.getReserved();
+        reserved = level.getReserved();
+        rowVersion = level.getRowVersion();
+    }
 
 }
 
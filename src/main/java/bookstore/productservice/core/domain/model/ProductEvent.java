@@ -0,0 +1,43 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.*;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Change of a product as published to other services. Created and updated events carry the
+ * product as it was written, stock changes only the new stock. The stock of an event is always
+ * the available stock, units held by reservations are not counted.
+ * <p>
+ * Events are not necessarily delivered in the order they happened. The row version the change wrote
+ * orders the events of a product, a consumer keeps the one with the highest and drops older ones.
+ * Deletes carry none, nothing follows them.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductEvent {
+
+    public enum Type {
+        CREATED("product.created"),
+        UPDATED("product.updated"),
+        DELETED("product.deleted"),
+        STOCK_CHANGED("product.stock-changed");
+
+        public final String routingKey;
+
+        Type(String routingKey) {
+            this.routingKey = routingKey;
+        }
+    }
+
+    private Type type;
+    private UUID productId;
+    private Product product;
+    private Integer stock;
+    private Long rowVersion;
+    private Instant occurredAt;
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+public class ProductFilter {
+
+    // every criterion is optional, a null one does not filter
+    private String language;
+    private String publishingHouse;
+    // one of the authors of the product
+    private String author;
+    private Float minPrice;
+    private Float maxPrice;
+    private Boolean inStock;
+
+}
@@ -0,0 +1,22 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductFilterResult {
+
+    private List<Product> products;
+    private int page;
+    private int size;
+    private long totalElements;
+    private int totalPages;
+    // facet -> value -> matching products, each facet ignores its own criterion so the other values stay visible
+    private Map<String, Map<String, Long>> facets;
+
+}
@@ -0,0 +1,24 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.*;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductImportResult {
+
+    public enum Status {
+        CREATED, DUPLICATE, INVALID
+    }
+
+    // position of the product in the import, starting at 0
+    private int row;
+    private String isbn13;
+    private UUID id;
+    private Status status;
+    private String message;
+
+}
@@ -0,0 +1,23 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.*;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductSuggestion {
+
+    public enum Field {
+        TITLE, AUTHOR, ISBN13
+    }
+
+    // the completed title, author or isbn13 as stored
+    private String text;
+    private Field field;
+    // the product the text belongs to, null if it belongs to several, like an author of several books
+    private UUID productId;
+
+}
@@ -0,0 +1,42 @@
+package bookstore.productservice.core.domain.model;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Closed projection of {@link Product} for listings. Queries returning it only select
+ * these columns, the description in particular is never read. Its stock is the available stock,
+ * as in {@link Product}.
+ */
+@JsonFilter(Product.JSON_FILTER)
+public interface ProductSummary {
+
+    public static final Set<String> FIELDS = Set.of("id", "isbn13", "title", "price", "stock", "coverUrl");
+
+    UUID getId();
+
+    String getIsbn13();
+
+    String getTitle();
+
+    float getPrice();
+
+    @JsonIgnore
+    int getStock();
+
+    @JsonIgnore
+    int getReserved();
+
+    String getCoverUrl();
+
+    // a default method is not a column, the projection stays closed
+    @JsonProperty("stock")
+    default int getAvailableStock() {
+        return getStock() - getReserved();
+    }
+
+}
@@ -0,0 +1,18 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.*;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductUpsertResult {
+
+    public enum Status {
+        CREATED, UPDATED, UNCHANGED
+    }
+
+    private Status status;
+    private Product product;
+
+}
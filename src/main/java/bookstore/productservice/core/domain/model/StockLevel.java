@@ -0,0 +1,30 @@
+package bookstore.productservice.core.domain.model;
+
+import lombok.Value;
+
+/**
+ * Closed projection of the row a stock statement wrote: the available stock, the units held by
+ * reservations and the row version it was written with. The row version orders the stock changes
+ * of a product, also when their events are published in another order.
+ */
+public interface StockLevel {
+
+    int getAvailable();
+
+    int getReserved();
+
+    long getRowVersion();
+
+    static StockLevel of(int available, int reserved, long rowVersion) {
+        return new Written(available, reserved, rowVersion);
+    }
+
+    // for the repositories that map the row themselves
+    @Value
+    class Written implements StockLevel {
+        int available;
+        int reserved;
+        long rowVersion;
+    }
+
+}
@@ -0,0 +1,43 @@
+package bookstore.productservice.core.domain.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Units of a product held for a cart until the order is placed or the hold expires.
+ * The sum of the open holds of a product is kept in {@link Product#getReserved()}, so reading
+ * the available stock never has to add up reservations.
+ */
+@Entity
+@Table(name = "stock_reservations", indexes = @Index(name = "stock_reservations_expires_at_idx", columnList = "expiresAt"))
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockReservation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(nullable = false)
+    private UUID productId;
+
+    @Column(nullable = false)
+    private String cartId;
+
+    @Column(nullable = false)
+    private int quantity;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+
+    public StockReservation(UUID productId, String cartId, int quantity, Instant expiresAt) {
+        this(null, productId, cartId, quantity, expiresAt);
+    }
+
+}
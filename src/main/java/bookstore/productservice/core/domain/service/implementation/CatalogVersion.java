@@ -0,0 +1,85 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version that changes whenever any product changes, locally or on another replica. It backs the ETag
+ * of catalog-wide responses. The version is the catalog_version sequence of the primary database, so all
+ * replicas hand out the same ETag; every instance keeps the last value it saw, so checking it does not
+ * touch the database.
+ */
+@Slf4j
+@Component
+public class CatalogVersion {
+
+    // without a database (tests, benchmarks) the version is only counted locally
+    @Autowired(required = false)
+    @Setter
+    private JdbcTemplate jdbcTemplate;
+
+    private final AtomicLong version = new AtomicLong();
+    // versions taken by next() without a database
+    private final AtomicLong issued = new AtomicLong();
+    private volatile boolean loaded;
+
+    public long get() {
+        if (!loaded) {
+            refresh();
+        }
+        return version.get();
+    }
+
+    /**
+     * Takes the version of a write that has committed, without handing it out yet: it is sent to the other
+     * replicas and only applied with advanceTo once the search index has the write. Null if no version
+     * could be taken.
+     */
+    public Long next() {
+        if (jdbcTemplate == null) {
+            return issued.incrementAndGet();
+        }
+        try {
+            return jdbcTemplate.queryForObject("SELECT nextval('catalog_version')", Long.class);
+        } catch (DataAccessException e) {
+            log.warn("Could not advance the catalog version", e);
+            return null;
+        }
+    }
+
+    // once the search index has the write that took the version, here or on another replica
+    public void advanceTo(Long value) {
+        if (value == null) {
+            // the writer could not take one, the sequence may have moved all the same
+            refresh();
+            return;
+        }
+        advance(value);
+    }
+
+    // regularly, in case the message of a write of another replica was lost
+    @Scheduled(fixedDelayString = "${productservice.catalog-version.refresh-interval-millis:10000}")
+    public void refresh() {
+        if (jdbcTemplate == null) {
+            return;
+        }
+        try {
+            advance(jdbcTemplate.queryForObject("SELECT last_value FROM catalog_version", Long.class));
+            loaded = true;
+        } catch (DataAccessException e) {
+            log.warn("Could not read the catalog version", e);
+        }
+    }
+
+    private void advance(long value) {
+        version.accumulateAndGet(value, Math::max);
+    }
+
+}
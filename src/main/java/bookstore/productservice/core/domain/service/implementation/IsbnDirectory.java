@@ -0,0 +1,69 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+
+/**
+ * Global isbn13 -> product id lookup of the sharded storage, kept in the primary database. It finds
+ * the shard of a product by isbn13 without asking every shard and keeps isbn13s unique across shards.
+ * Runs in the transaction of the caller, so an entry commits together with the outbox event of the write.
+ */
+public class IsbnDirectory {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IsbnDirectory(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Optional<UUID> find(String isbn13) {
+        List<UUID> ids = jdbcTemplate.queryForList(
+                "SELECT product_id FROM product_isbn_directory WHERE isbn13 = ?", UUID.class, isbn13);
+        return ids.stream().findFirst();
+    }
+
+    public Set<String> existing(Collection<String> isbn13s) {
+        Set<String> existing = new HashSet<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT isbn13 FROM product_isbn_directory WHERE isbn13 = ANY(?)");
+            statement.setArray(1, connection.createArrayOf("varchar", isbn13s.toArray()));
+            return statement;
+        }, row -> {
+            existing.add(row.getString("isbn13"));
+        });
+        return existing;
+    }
+
+    /**
+     * Claims the isbn13 for the product and returns the id it belongs to, which is a different one
+     * if another product claimed it first.
+     */
+    public UUID claim(String isbn13, UUID id) {
+        List<UUID> claimed = jdbcTemplate.queryForList("INSERT INTO product_isbn_directory (isbn13, product_id) " +
+                "VALUES (?, ?) ON CONFLICT (isbn13) DO NOTHING RETURNING product_id", UUID.class, isbn13, id);
+        if (!claimed.isEmpty()) {
+            return id;
+        }
+        return find(isbn13).orElseThrow(() -> new IllegalStateException("isbn13 " + isbn13 + " was released while claiming it"));
+    }
+
+    // like claim, but a product that is not the owner is an error
+    public void claimOrFail(String isbn13, UUID id) {
+        if (!claim(isbn13, id).equals(id)) {
+            throw new DuplicateKeyException("isbn13 " + isbn13 + " already belongs to another product");
+        }
+    }
+
+    public void release(String isbn13, UUID id) {
+        jdbcTemplate.update("DELETE FROM product_isbn_directory WHERE isbn13 = ? AND product_id = ?", isbn13, id);
+    }
+
+    public void clear() {
+        jdbcTemplate.update("DELETE FROM product_isbn_directory");
+    }
+
+}
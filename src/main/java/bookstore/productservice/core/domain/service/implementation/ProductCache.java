@@ -0,0 +1,279 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.port.product.CacheInvalidationMessage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of products by id and by isbn13.
+ * Writes on this instance evict locally and are broadcast over the cache invalidation
+ * fanout exchange, so every other replica evicts the same entries.
+ */
+@Slf4j
+@Component
+public class ProductCache implements MeterBinder {
+
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final Cache<UUID, Product> productsById;
+    private final Cache<String, UUID> idsByIsbn13;
+
+    // loads in progress, callers for the same id wait for the first one instead of querying again
+    private final Map<UUID, CompletableFuture<Product>> loading = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Product>> loadingByIsbn13 = new ConcurrentHashMap<>();
+
+    @Autowired(required = false)
+    @Setter
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired(required = false)
+    @Setter
+    private FanoutExchange cacheInvalidationExchange;
+
+    @Autowired(required = false)
+    @Setter
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired(required = false)
+    @Setter
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    public ProductCache(@Value("${productservice.cache.maximum-size:10000}") long maximumSize,
+                        @Value("${productservice.cache.expire-after-write:5m}") Duration expireAfterWrite) {
+        this.productsById = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        this.idsByIsbn13 = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .build();
+    }
+
+    /**
+     * Returns the cached product or loads it, a null from the loader is not cached.
+     * The loader does not run inside a cache computation: that would hold a map lock during
+     * the query and pin the carrier thread of a virtual thread.
+     */
+    public Product get(UUID id, Function<UUID, Product> loader) {
+        Product cached = productsById.getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+
+        return load(id, loading, loader);
+    }
+
+    /**
+     * Returns the cached products and loads all missing ones with a single call of the loader.
+     * Ids the loader does not return are missing from the result and are not cached.
+     */
+    public Map<UUID, Product> getAll(Collection<UUID> ids, Function<Set<UUID>, Map<UUID, Product>> loader) {
+        Map<UUID, Product> products = new HashMap<>();
+        Map<UUID, CompletableFuture<Product>> loads = new HashMap<>();
+        Map<UUID, CompletableFuture<Product>> inProgress = new HashMap<>();
+        for (UUID id : ids) {
+            Product cached = productsById.getIfPresent(id);
+            if (cached != null) {
+                products.put(id, cached);
+            } else if (!loads.containsKey(id) && !inProgress.containsKey(id)) {
+                CompletableFuture<Product> load = new CompletableFuture<>();
+                CompletableFuture<Product> other = loading.putIfAbsent(id, load);
+                if (other == null) {
+                    loads.put(id, load);
+                } else {
+                    inProgress.put(id, other);
+                }
+            }
+        }
+
+        if (!loads.isEmpty()) {
+            Map<UUID, Product> loaded;
+            try {
+                loaded = loader.apply(Set.copyOf(loads.keySet()));
+            } catch (RuntimeException e) {
+                loads.forEach((id, load) -> {
+                    loading.remove(id, load);
+                    load.completeExceptionally(e);
+                });
+                throw e;
+            }
+            loads.forEach((id, load) -> {
+                Product product = store(id, loading, load, loaded.get(id));
+                if (product != null) {
+                    products.put(id, product);
+                }
+            });
+        }
+        // loaded by other callers, waited for last so the own query runs meanwhile
+        inProgress.forEach((id, load) -> {
+            Product product = load.join();
+            if (product != null) {
+                products.put(id, product);
+            }
+        });
+        return products;
+    }
+
+    /**
+     * Returns the cached product or loads it like {@link #get}, callers for the same isbn13 wait for the first one.
+     */
+    public Product getByIsbn13(String isbn13, Function<String, Product> loader) {
+        UUID id = idsByIsbn13.getIfPresent(isbn13);
+        if (id != null) {
+            Product product = productsById.getIfPresent(id);
+            if (product != null && isbn13.equals(product.getIsbn13())) {
+                return product;
+            }
+        }
+        return load(isbn13, loadingByIsbn13, loader);
+    }
+
+    public void invalidate(UUID id) {
+        invalidate(id, null);
+    }
+
+    public void invalidate(UUID id, String isbn13) {
+        // taken after the commit and sent with the broadcast, a replica that reads it has to see the write
+        AtomicReference<Long> version = new AtomicReference<>();
+        // evicting before the surrounding transaction commits would let a concurrent read cache the old row again
+        AfterCommit.run(() -> {
+            evict(id, isbn13);
+            if (catalogVersion != null) {
+                version.set(catalogVersion.next());
+            }
+            broadcast(id, isbn13, version.get());
+        });
+        // the search index is updated after the commit as well, a client must not get the new ETag with old results
+        if (catalogVersion != null) {
+            AfterCommit.runLast(() -> catalogVersion.advanceTo(version.get()));
+        }
+    }
+
+    @RabbitListener(queues = "#{cacheInvalidationQueue.name}")
+    public void onInvalidation(CacheInvalidationMessage message) {
+        if (instanceId.equals(message.getOrigin())) {
+            return;
+        }
+        evict(message.getProductId(), message.getIsbn13());
+        if (eventPublisher != null && message.getProductId() != null) {
+            eventPublisher.publishEvent(new ProductInvalidatedEvent(message.getProductId()));
+        }
+        // the search index has caught up with the write by now
+        if (catalogVersion != null) {
+            catalogVersion.advanceTo(message.getCatalogVersion());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, productsById, "products");
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = productsById.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", productsById.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        return result;
+    }
+
+    private <K> Product load(K key, Map<K, CompletableFuture<Product>> inFlight, Function<K, Product> loader) {
+        CompletableFuture<Product> load = new CompletableFuture<>();
+        CompletableFuture<Product> inProgress = inFlight.putIfAbsent(key, load);
+        if (inProgress != null) {
+            return inProgress.join();
+        }
+
+        Product product;
+        try {
+            product = loader.apply(key);
+        } catch (RuntimeException e) {
+            inFlight.remove(key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+        return store(key, inFlight, load, product);
+    }
+
+    /**
+     * Caches a loaded product unless its load was dropped by an invalidation meanwhile,
+     * then hands it to the callers waiting for the load.
+     */
+    private <K> Product store(K key, Map<K, CompletableFuture<Product>> inFlight,
+                              CompletableFuture<Product> load, Product product) {
+        if (product != null) {
+            productsById.put(product.getId(), product);
+            idsByIsbn13.put(product.getIsbn13(), product.getId());
+        }
+        // invalidated while loading, the product may have been read before the write
+        if (!inFlight.remove(key, load) && product != null) {
+            productsById.invalidate(product.getId());
+            idsByIsbn13.invalidate(product.getIsbn13());
+        }
+        load.complete(product);
+        return product;
+    }
+
+    private void evict(UUID id, String isbn13) {
+        // the isbn13 of a product that is being loaded is not known, no load by isbn13 may cache what it read
+        loadingByIsbn13.clear();
+        if (id != null) {
+            loading.remove(id);
+            Product cached = productsById.asMap().get(id);
+            if (cached != null) {
+                idsByIsbn13.invalidate(cached.getIsbn13());
+            }
+            productsById.invalidate(id);
+        }
+        if (isbn13 != null) {
+            idsByIsbn13.invalidate(isbn13);
+        }
+    }
+
+    private void broadcast(UUID id, String isbn13, Long version) {
+        if (rabbitTemplate == null || cacheInvalidationExchange == null) {
+            return;
+        }
+        try {
+            rabbitTemplate.convertAndSend(cacheInvalidationExchange.getName(), "",
+                    new CacheInvalidationMessage(instanceId, id, isbn13, version));
+        } catch (AmqpException e) {
+            // the entry still expires after the configured ttl on the other replicas
+            log.warn("Could not broadcast cache invalidation for product {}", id, e);
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.OutboxEvent;
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductEvent;
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.service.interfaces.IOutboxRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Writes product events to the outbox table. Has to be called inside the transaction of the change,
+ * the event is then committed or rolled back together with it.
+ */
+@Component
+@Transactional(propagation = Propagation.MANDATORY)
+public class ProductEventOutbox {
+
+    @Autowired
+    @Setter
+    private IOutboxRepository outboxRepository;
+
+    @Autowired
+    @Setter
+    private ObjectMapper objectMapper;
+
+    public void productCreated(Product product) {
+        record(ProductEvent.Type.CREATED, product.getId(), product, product.getAvailableStock(), product.getRowVersion());
+    }
+
+    public void productUpdated(Product product) {
+        record(ProductEvent.Type.UPDATED, product.getId(), product, product.getAvailableStock(), product.getRowVersion());
+    }
+
+    public void productDeleted(UUID id) {
+        record(ProductEvent.Type.DELETED, id, null, null, null);
+    }
+
+    public void stockChanged(UUID id, StockLevel stock) {
+        record(ProductEvent.Type.STOCK_CHANGED, id, null, stock.getAvailable(), stock.getRowVersion());
+    }
+
+    private void record(ProductEvent.Type type, UUID id, Product product, Integer stock, Long rowVersion) {
+        Instant now = Instant.now();
+        ProductEvent event = ProductEvent.builder()
+                .type(type)
+                .productId(id)
+                .product(product)
+                .stock(stock)
+                .rowVersion(rowVersion)
+                .occurredAt(now)
+                .build();
+        try {
+            outboxRepository.save(new OutboxEvent(id, type, objectMapper.writeValueAsString(event), now));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize " + type + " event of product " + id, e);
+        }
+    }
+
+}
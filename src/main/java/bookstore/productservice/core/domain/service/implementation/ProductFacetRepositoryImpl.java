@@ -0,0 +1,63 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.service.interfaces.ProductFacetRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.*;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Facet counts behind {@link ProductFacetRepository}, one GROUP BY per facet over the filtered products.
+ */
+public class ProductFacetRepositoryImpl implements ProductFacetRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Map<String, Long> countByAttribute(Specification<Product> specification, String attribute, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Product> root = query.from(Product.class);
+        Path<String> value = root.get(attribute);
+        Expression<Long> count = cb.count(root);
+
+        query.multiselect(value, count)
+                .where(specification.toPredicate(root, query, cb))
+                .groupBy(value)
+                .orderBy(cb.desc(count), cb.asc(value));
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Tuple row : entityManager.createQuery(query).setMaxResults(limit).getResultList()) {
+            counts.put(row.get(0, String.class), row.get(1, Long.class));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> countByStock(Specification<Product> specification) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Product> root = query.from(Product.class);
+        Expression<Long> inStock = cb.sum(cb.<Long>selectCase()
+                .when(cb.gt(ProductSpecifications.availableStock(root, cb), 0), 1L)
+                .otherwise(0L));
+
+        query.multiselect(inStock, cb.count(root))
+                .where(specification.toPredicate(root, query, cb));
+
+        Tuple row = entityManager.createQuery(query).getSingleResult();
+        // SUM over no rows is null
+        long available = row.get(0, Long.class) == null ? 0 : row.get(0, Long.class);
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("true", available);
+        counts.put("false", row.get(1, Long.class) - available);
+        return counts;
+    }
+
+}
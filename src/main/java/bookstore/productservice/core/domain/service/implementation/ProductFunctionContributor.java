@@ -0,0 +1,21 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * PostgreSQL array operators for criteria queries, registered through META-INF/services.
+ */
+public class ProductFunctionContributor implements FunctionContributor {
+
+    // array_contains(authors, 'name') -> authors @> array['name'], the form a GIN index on the array can answer
+    public static final String ARRAY_CONTAINS = "array_contains";
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        functionContributions.getFunctionRegistry().registerPattern(ARRAY_CONTAINS, "(?1 @> array[?2]::varchar[])",
+                functionContributions.getTypeConfiguration().getBasicTypeRegistry().resolve(StandardBasicTypes.BOOLEAN));
+    }
+
+}
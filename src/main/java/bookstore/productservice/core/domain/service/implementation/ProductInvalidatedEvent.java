@@ -0,0 +1,18 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Published when another replica reports a change to a product,
+ * so in-memory structures on this instance can reload it.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductInvalidatedEvent {
+
+    private final UUID productId;
+
+}
@@ -0,0 +1,62 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counters of domain outcomes that request timings do not show. All counters are registered up front,
+ * counting is a plain increment without a registry lookup.
+ */
+@Component
+public class ProductMetrics {
+
+    private final Counter searchHits;
+    private final Counter searchEmpty;
+    private final Counter productNotFound;
+    private final Counter insufficientStock;
+    private final Counter concurrentModification;
+
+    public ProductMetrics(MeterRegistry registry) {
+        this.searchHits = Counter.builder("productservice.search")
+                .description("Product searches by outcome")
+                .tag("result", "hit")
+                .register(registry);
+        this.searchEmpty = Counter.builder("productservice.search")
+                .description("Product searches by outcome")
+                .tag("result", "empty")
+                .register(registry);
+        this.productNotFound = Counter.builder("productservice.product.not-found")
+                .description("Requests for products that do not exist")
+                .register(registry);
+        this.insufficientStock = Counter.builder("productservice.stock.conflicts")
+                .description("Rejected writes")
+                .tag("reason", "insufficient-stock")
+                .register(registry);
+        this.concurrentModification = Counter.builder("productservice.stock.conflicts")
+                .description("Rejected writes")
+                .tag("reason", "concurrent-modification")
+                .register(registry);
+    }
+
+    public void searchHit() {
+        searchHits.increment();
+    }
+
+    public void searchEmpty() {
+        searchEmpty.increment();
+    }
+
+    public void productNotFound() {
+        productNotFound.increment();
+    }
+
+    public void insufficientStock() {
+        insufficientStock.increment();
+    }
+
+    public void concurrentModification() {
+        concurrentModification.increment();
+    }
+
+}
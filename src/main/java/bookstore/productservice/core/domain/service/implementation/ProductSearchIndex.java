@@ -0,0 +1,266 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.service.interfaces.IProductRepository;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * In-memory inverted index over title, authors, isbn13, publishing house and description.
+ * Terms are case-folded and stripped of accents, every query token matches terms exactly
+ * or as a prefix, and all tokens of a query have to match (AND). The isbn13 is indexed with
+ * all of its suffixes, so any part of it can be searched for.
+ */
+@Component
+public class ProductSearchIndex {
+
+    private static final float TITLE_WEIGHT = 5f;
+    private static final float ISBN_WEIGHT = 5f;
+    private static final float AUTHOR_WEIGHT = 3f;
+    private static final float PUBLISHING_HOUSE_WEIGHT = 2f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+
+    // a token matching only the beginning of a term is worth less than a whole term
+    private static final float PREFIX_MATCH_FACTOR = 0.5f;
+    // shorter tokens are only matched exactly, a one letter prefix would touch most of the index
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    // term -> (product id -> weight of the term in that product)
+    private final ConcurrentSkipListMap<String, Map<UUID, Float>> postings = new ConcurrentSkipListMap<>();
+    private final Map<UUID, Product> documents = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<String>> termsByDocument = new ConcurrentHashMap<>();
+
+    // serializes writers, a lock instead of synchronized so waiting virtual threads do not pin their carrier
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // changes with every add and remove, stamps cached search results
+    private final AtomicLong version = new AtomicLong();
+
+    private final ProductSuggester suggester = new ProductSuggester();
+
+    @Autowired
+    @Setter
+    private IProductRepository productRepository;
+
+    // not read-only, which would send it to a replica that may not have the latest products yet
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void rebuild() {
+        try (Stream<Product> products = productRepository.streamAll()) {
+            products.forEach(this::add);
+        }
+    }
+
+    // reloads from the primary for the same reason
+    @EventListener
+    @Transactional
+    public void onProductInvalidated(ProductInvalidatedEvent event) {
+        UUID id = event.getProductId();
+        Optional<Product> product = productRepository.findById(id);
+        if (product.isPresent()) {
+            add(product.get());
+        } else {
+            remove(id);
+        }
+    }
+
+    /**
+     * Adds the product or replaces the indexed version of it.
+     */
+    public void add(Product product) {
+        Map<String, Float> terms = new HashMap<>();
+        addTerms(terms, product.getTitle(), TITLE_WEIGHT);
+        if (product.getAuthors() != null) {
+            for (String author : product.getAuthors()) {
+                addTerms(terms, author, AUTHOR_WEIGHT);
+            }
+        }
+        addTerms(terms, product.getPublishingHouse(), PUBLISHING_HOUSE_WEIGHT);
+        addTerms(terms, product.getDescription(), DESCRIPTION_WEIGHT);
+        addIsbnTerms(terms, product.getIsbn13());
+
+        UUID id = product.getId();
+        writeLock.lock();
+        try {
+            removeTerms(id);
+            terms.forEach((term, weight) ->
+                    postings.computeIfAbsent(term, key -> new ConcurrentHashMap<>()).put(id, weight));
+            termsByDocument.put(id, terms.keySet());
+            documents.put(id, product);
+            suggester.add(product);
+            version.incrementAndGet();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void remove(UUID id) {
+        writeLock.lock();
+        try {
+            removeTerms(id);
+            termsByDocument.remove(id);
+            documents.remove(id);
+            suggester.remove(id);
+            version.incrementAndGet();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stock is not searched, so a stock change only has to update the stored product and the suggestion ranking.
+     * The product is updated in place, cached search results hold the same instance.
+     */
+    public void updateStock(UUID id, StockLevel stock) {
+        writeLock.lock();
+        try {
+            Product product = documents.get(id);
+            if (product != null) {
+                product.apply(stock);
+                suggester.stockChanged(id, stock.getAvailable());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public List<Product> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        Map<UUID, Float> scores = null;
+        for (String token : tokens) {
+            Map<UUID, Float> tokenScores = scoreToken(token);
+            if (scores == null) {
+                scores = tokenScores;
+            } else {
+                Map<UUID, Float> current = tokenScores;
+                scores.keySet().retainAll(current.keySet());
+                scores.replaceAll((id, score) -> score + current.get(id));
+            }
+            if (scores.isEmpty()) {
+                return List.of();
+            }
+        }
+
+        // keep only the best `limit` hits instead of sorting every match
+        Comparator<Map.Entry<UUID, Float>> byScore = Map.Entry.comparingByValue();
+        PriorityQueue<Map.Entry<UUID, Float>> best = new PriorityQueue<>(limit + 1, byScore);
+        for (Map.Entry<UUID, Float> entry : scores.entrySet()) {
+            best.offer(entry);
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        List<Product> result = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            Product product = documents.get(best.poll().getKey());
+            if (product != null) {
+                result.add(product);
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Completions of titles, authors and isbn13s starting with the prefix, the ones with the most stock first.
+     */
+    public List<ProductSuggestion> suggest(String prefix, int limit) {
+        return suggester.suggest(prefix, limit);
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    private Map<UUID, Float> scoreToken(String token) {
+        Map<UUID, Float> scores = new HashMap<>();
+        Map<String, Map<UUID, Float>> matches = token.length() < MIN_PREFIX_LENGTH
+                ? exactMatch(token)
+                : postings.subMap(token, true, token + Character.MAX_VALUE, false);
+
+        for (Map.Entry<String, Map<UUID, Float>> match : matches.entrySet()) {
+            float factor = match.getKey().equals(token) ? 1f : PREFIX_MATCH_FACTOR;
+            // several terms can share the prefix, a product only gets the best of them
+            match.getValue().forEach((id, weight) -> scores.merge(id, weight * factor, Math::max));
+        }
+        return scores;
+    }
+
+    private Map<String, Map<UUID, Float>> exactMatch(String token) {
+        Map<UUID, Float> documentsWithTerm = postings.get(token);
+        return documentsWithTerm == null ? Map.of() : Map.of(token, documentsWithTerm);
+    }
+
+    private void removeTerms(UUID id) {
+        Set<String> terms = termsByDocument.get(id);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            postings.computeIfPresent(term, (key, documentsWithTerm) -> {
+                documentsWithTerm.remove(id);
+                return documentsWithTerm.isEmpty() ? null : documentsWithTerm;
+            });
+        }
+    }
+
+    private static void addTerms(Map<String, Float> terms, String text, float weight) {
+        for (String token : tokenize(text)) {
+            terms.merge(token, weight, Float::sum);
+        }
+    }
+
+    private static void addIsbnTerms(Map<String, Float> terms, String isbn13) {
+        if (isbn13 == null) {
+            return;
+        }
+        String digits = isbn13.replace("-", "").toLowerCase(Locale.ROOT);
+        for (int i = 0; i < digits.length(); i++) {
+            terms.merge(digits.substring(i), ISBN_WEIGHT, Math::max);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        for (String token : SEPARATORS.split(folded)) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+}
@@ -1,86 +1,760 @@
 package bookstore.productservice.core.domain.service.implementation;
 
 import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductFilter;
+import bookstore.productservice.core.domain.model.ProductFilterResult;
+import bookstore.productservice.core.domain.model.ProductImportResult;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+import bookstore.productservice.core.domain.model.ProductSummary;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.model.StockReservation;
 import bookstore.productservice.core.domain.service.interfaces.IProductRepository;
 import bookstore.productservice.core.domain.service.interfaces.IProductService;
+import bookstore.productservice.core.domain.service.interfaces.IStockReservationRepository;
 import bookstore.productservice.port.product.exception.EmptySearchResultException;
+import bookstore.productservice.port.product.exception.FilterNotAvailableException;
+import bookstore.productservice.port.product.exception.InsufficientStockException;
+import bookstore.productservice.port.product.exception.InvalidFilterException;
+import bookstore.productservice.port.product.exception.InvalidPatchException;
+import bookstore.productservice.port.product.exception.InvalidProductException;
+import bookstore.productservice.port.product.exception.InvalidQuantityException;
+import bookstore.productservice.port.product.exception.InvalidReservationException;
 import bookstore.productservice.port.product.exception.ProductAlreadyExistsException;
+import bookstore.productservice.port.product.exception.ProductModifiedException;
 import bookstore.productservice.port.product.exception.ProductNotFoundException;
+import bookstore.productservice.port.product.exception.ReservationNotFoundException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PersistenceContext;
 import lombok.Setter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
-import java.util.UUID;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class ProductService implements IProductService {
 
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+    // values listed per facet, the long tail of publishing houses is not worth a checkbox
+    private static final int FACET_SIZE = 20;
+
+    // fields a PATCH may change, id and row version are managed here and stock has its own endpoints
+    private static final Set<String> PATCHABLE_FIELDS = Set.of("isbn13", "title", "version", "authors",
+            "publishingDate", "publishingHouse", "description", "language", "pages", "coverUrl", "price");
+    private static final Set<String> NULLABLE_FIELDS = Set.of("coverUrl");
+
     @Autowired
     @Setter
     private IProductRepository productRepository;
 
+    @Autowired
+    @Setter
+    private ProductCache productCache;
+
+    @Autowired
+    @Setter
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    @Setter
+    private SearchResultCache searchResultCache;
+
+    @Autowired
+    @Setter
+    private ProductEventOutbox eventOutbox;
+
+    @Autowired
+    @Setter
+    private ProductMetrics metrics;
+
+    @Autowired
+    @Setter
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    @Setter
+    private EntityManager entityManager;
 
+    @Autowired
+    @Setter
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    @Setter
+    private IStockReservationRepository reservationRepository;
+
+    // only there in write-behind mode, see StockWriteBehind
+    @Autowired(required = false)
+    @Setter
+    private StockWriteBehind stockWriteBehind;
+
+    // only there in sharded mode, see ShardingConfig. Its products are not managed by the entity manager,
+    // so changes to them are written explicitly
+    @Autowired(required = false)
+    @Setter
+    private ShardedProductRepository shardedRepository;
+
+    @Value("${productservice.reservations.default-ttl:15m}")
+    @Setter
+    private Duration reservationTtl;
+
+    @Value("${productservice.reservations.max-ttl:2h}")
+    @Setter
+    private Duration maxReservationTtl;
+
+    @Value("${productservice.import.chunk-size:1000}")
+    @Setter
+    private int importChunkSize;
+
+    // how long a stock decrease waits for a running flush that took units of its product
+    @Value("${productservice.stock-write-behind.flush-wait:5s}")
+    @Setter
+    private Duration stockFlushWait;
+
+
+    // every write records its event in the outbox within the same transaction,
+    // the in-memory index only sees it once it has committed
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public Product createProduct(Product product) throws ProductAlreadyExistsException {
-        if (productRepository.findByIsbn13(product.getIsbn13()) == null) {
-            return productRepository.save(product);
+        if (productCache.getByIsbn13(product.getIsbn13(), productRepository::findByIsbn13) == null) {
+            Product created = productRepository.save(product);
+            eventOutbox.productCreated(created);
+            productCache.invalidate(created.getId(), created.getIsbn13());
+            AfterCommit.run(() -> searchIndex.add(created));
+            return created;
         }
         throw new ProductAlreadyExistsException();
     }
 
+    /**
+     * Imports the products read by the iterator. A row the iterator fails to read (a Jackson MappingIterator
+     * throws for it) is reported as INVALID; after a JSON syntax error the rest of the input is not read.
+     */
+    @Override
+    public List<ProductImportResult> importProducts(Iterator<Product> products) {
+        List<ProductImportResult> results = new ArrayList<>();
+        Set<String> importedIsbn13s = new HashSet<>();
+        List<Product> chunk = new ArrayList<>(importChunkSize);
+        // why the rows of the chunk that are null could not be read
+        Map<Integer, String> unreadable = new HashMap<>();
+
+        boolean readable = true;
+        while (readable) {
+            try {
+                if (!products.hasNext()) {
+                    break;
+                }
+                chunk.add(products.next());
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof JsonProcessingException cause)) {
+                    throw e;
+                }
+                unreadable.put(chunk.size(), "Invalid product: " + cause.getOriginalMessage());
+                chunk.add(null);
+                // a row of the wrong shape is skipped, broken JSON leaves no next row to find
+                readable = cause instanceof JsonMappingException;
+            }
+            if (chunk.size() == importChunkSize) {
+                results.addAll(importChunk(chunk, unreadable, results.size(), importedIsbn13s));
+                chunk.clear();
+                unreadable.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(importChunk(chunk, unreadable, results.size(), importedIsbn13s));
+        }
+        return results;
+    }
+
+    /**
+     * Imports one chunk in its own transaction: one query checks all isbn13s against the database,
+     * the inserts go out as JDBC batches.
+     */
+    private List<ProductImportResult> importChunk(List<Product> chunk, Map<Integer, String> unreadable, int firstRow,
+                                                  Set<String> importedIsbn13s) {
+        List<ProductImportResult> results = new ArrayList<>(chunk.size());
+        List<Product> created = new ArrayList<>(chunk.size());
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Set<String> isbn13s = new HashSet<>();
+            for (Product product : chunk) {
+                if (product != null && product.getIsbn13() != null) {
+                    isbn13s.add(product.getIsbn13());
+                }
+            }
+            Set<String> existing = isbn13s.isEmpty() ? Set.of() : productRepository.findExistingIsbn13s(isbn13s);
+
+            for (int i = 0; i < chunk.size(); i++) {
+                Product product = chunk.get(i);
+                if (product == null) {
+                    results.add(ProductImportResult.builder()
+                            .row(firstRow + i)
+                            .status(ProductImportResult.Status.INVALID)
+                            .message(unreadable.get(i))
+                            .build());
+                    continue;
+                }
+                ProductImportResult result = ProductImportResult.builder()
+                        .row(firstRow + i)
+                        .isbn13(product.getIsbn13())
+                        .build();
+                String missing = missingField(product);
+
+                if (missing != null) {
+                    result.setStatus(ProductImportResult.Status.INVALID);
+                    result.setMessage(missing + " is required.");
+                } else if (existing.contains(product.getIsbn13()) || !importedIsbn13s.add(product.getIsbn13())) {
+                    result.setStatus(ProductImportResult.Status.DUPLICATE);
+                    result.setMessage("Product already exists.");
+                } else {
+                    // ids are always assigned here, so every row is a plain insert
+                    product.setId(null);
+                    if (shardedRepository != null) {
+                        shardedRepository.save(product);
+                    } else {
+                        entityManager.persist(product);
+                    }
+                    eventOutbox.productCreated(product);
+                    created.add(product);
+                    result.setId(product.getId());
+                    result.setStatus(ProductImportResult.Status.CREATED);
+                }
+                results.add(result);
+            }
+
+            entityManager.flush();
+            entityManager.clear();
+        });
+
+        for (Product product : created) {
+            searchIndex.add(product);
+            productCache.invalidate(product.getId(), product.getIsbn13());
+        }
+        return results;
+    }
+
+    /**
+     * Creates or updates the product with the isbn13 of the path in a single statement. Repeating the
+     * same product changes nothing, is not written and publishes no event.
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public ProductUpsertResult upsertProduct(String isbn13, Product product) throws InvalidProductException {
+        if (product.getIsbn13() != null && !product.getIsbn13().equals(isbn13)) {
+            throw new InvalidProductException("isbn13 of the product does not match the path.");
+        }
+        Product withIsbn13 = new Product(null, isbn13, product.getTitle(), product.getVersion(), product.getAuthors(),
+                product.getPublishingDate(), product.getPublishingHouse(), product.getDescription(),
+                product.getLanguage(), product.getPages(), product.getCoverUrl(), product.getPrice(), product.getStock());
+        String missing = missingField(withIsbn13);
+        if (missing != null) {
+            throw new InvalidProductException(missing + " is required.");
+        }
+
+        ProductUpsertResult result = productRepository.upsertByIsbn13(withIsbn13);
+        Product upserted = result.getProduct();
+        switch (result.getStatus()) {
+            case CREATED -> eventOutbox.productCreated(upserted);
+            case UPDATED -> eventOutbox.productUpdated(upserted);
+            case UNCHANGED -> {
+                return result;
+            }
+        }
+        productCache.invalidate(upserted.getId(), isbn13);
+        AfterCommit.run(() -> searchIndex.add(upserted));
+        return result;
+    }
+
+    private static String missingField(Product product) {
+        Map<String, Object> required = new LinkedHashMap<>();
+        required.put("isbn13", product.getIsbn13());
+        required.put("title", product.getTitle());
+        required.put("version", product.getVersion());
+        required.put("authors", product.getAuthors());
+        required.put("publishingDate", product.getPublishingDate());
+        required.put("publishingHouse", product.getPublishingHouse());
+        required.put("description", product.getDescription());
+        required.put("language", product.getLanguage());
+
+        for (Map.Entry<String, Object> field : required.entrySet()) {
+            if (field.getValue() == null) {
+                return field.getKey();
+            }
+        }
+        return null;
+    }
+
+    // cache fills read from the primary, a lagging replica would keep an old version cached
     @Override
     public Product getProduct(UUID uuid) {
-        return productRepository.findById(uuid).orElse(null);
+        return productCache.get(uuid, id -> readFromPrimary(() -> productRepository.findById(id).orElse(null)));
     }
 
     @Override
+    @Transactional(readOnly = true)
     public List<Product> getProducts() {
         return productRepository.findAll();
     }
 
     @Override
-    public void updateProduct(Product product) {
-        if (productRepository.existsById(product.getId())) {
-            productRepository.deleteById(product.getId());
-            productRepository.save(product);
+    @Transactional(readOnly = true)
+    public List<Product> getProducts(UUID after, int limit) {
+        // keyset pagination: ordering by id keeps pages stable while products are added or removed
+        Pageable page = PageRequest.of(0, limit);
+        if (after == null) {
+            return productRepository.findAllByOrderByIdAsc(page);
+        }
+        return productRepository.findByIdGreaterThanOrderByIdAsc(after, page);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ProductSummary> getProductSummaries(UUID after, int limit) {
+        Pageable page = PageRequest.of(0, limit);
+        if (after == null) {
+            return productRepository.findAllByOrderByIdAsc(page, ProductSummary.class);
+        }
+        return productRepository.findByIdGreaterThanOrderByIdAsc(after, page, ProductSummary.class);
+    }
+
+    @Override
+    public List<Product> getProducts(Collection<UUID> ids) {
+        // everything that is not cached is loaded with one query
+        Map<UUID, Product> products = productCache.getAll(ids, missing -> readFromPrimary(() -> {
+            Map<UUID, Product> loaded = new HashMap<>();
+            for (Product product : productRepository.findAllById(missing)) {
+                loaded.put(product.getId(), product);
+            }
+            return loaded;
+        }));
+
+        List<Product> result = new ArrayList<>(products.size());
+        for (UUID id : new LinkedHashSet<>(ids)) {
+            Product product = products.get(id);
+            if (product != null) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportProducts(Consumer<Product> consumer) {
+        try (Stream<Product> products = productRepository.streamAll()) {
+            products.forEach(product -> {
+                consumer.accept(product);
+                // detach right away, otherwise the persistence context grows with the catalog
+                entityManager.detach(product);
+            });
+        }
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void updateProduct(Product product) throws ProductModifiedException {
+        Product stored = productRepository.findById(product.getId()).orElse(null);
+        if (stored != null) {
+            // updated in place, the row version sent by the client has to match the stored one
+            Product updated;
+            try {
+                updated = productRepository.save(withReserved(product, stored.getReserved()));
+                // a concurrent update is otherwise only noticed when the transaction commits
+                entityManager.flush();
+            } catch (OptimisticLockingFailureException | OptimisticLockException e) {
+                metrics.concurrentModification();
+                throw new ProductModifiedException();
+            }
+            eventOutbox.productUpdated(updated);
+            productCache.invalidate(updated.getId(), updated.getIsbn13());
+            AfterCommit.run(() -> searchIndex.add(updated));
         }
     }
 
+    /**
+     * Applies a JSON merge patch (RFC 7386) to the stored product. Only the changed columns are written,
+     * in a single UPDATE that also checks the row version.
+     */
     @Override
+    @Transactional(rollbackFor = Exception.class)
+    public Product patchProduct(UUID id, JsonNode patch, Long expectedRowVersion) throws ProductNotFoundException,
+            ProductModifiedException, ProductAlreadyExistsException, InvalidPatchException {
+        validatePatch(patch);
+        Product product = productRepository.findById(id).orElseThrow(this::productNotFound);
+        if (expectedRowVersion != null && expectedRowVersion != product.getRowVersion()) {
+            metrics.concurrentModification();
+            throw new ProductModifiedException();
+        }
+
+        String isbn13 = product.getIsbn13();
+        // checked before the patch touches the managed product, the query would flush it and find the product itself
+        JsonNode newIsbn13 = patch.get("isbn13");
+        if (newIsbn13 != null && newIsbn13.isValueNode() && !isbn13.equals(newIsbn13.asText())
+                && productRepository.findByIsbn13(newIsbn13.asText()) != null) {
+            throw new ProductAlreadyExistsException();
+        }
+        try {
+            objectMapper.readerForUpdating(product).readValue(patch);
+        } catch (JsonProcessingException e) {
+            throw new InvalidPatchException("Invalid patch: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            // read from a tree, there is no I/O
+            throw new UncheckedIOException(e);
+        }
+
+        Product patched;
+        try {
+            patched = writePatch(product);
+        } catch (OptimisticLockingFailureException | OptimisticLockException e) {
+            metrics.concurrentModification();
+            throw new ProductModifiedException();
+        }
+        eventOutbox.productUpdated(patched);
+        productCache.invalidate(id, isbn13);
+        AfterCommit.run(() -> searchIndex.add(patched));
+        return patched;
+    }
+
+    private Product writePatch(Product product) {
+        if (shardedRepository != null) {
+            return shardedRepository.save(product);
+        }
+        entityManager.flush();
+        return product;
+    }
+
+    // the client reads and sends the available stock, the units held by reservations stay held
+    private static Product withReserved(Product product, int reserved) {
+        return new Product(product.getId(), product.getIsbn13(), product.getTitle(), product.getVersion(),
+                product.getAuthors(), product.getPublishingDate(), product.getPublishingHouse(), product.getDescription(),
+                product.getLanguage(), product.getPages(), product.getCoverUrl(), product.getPrice(),
+                product.getStock() + reserved, product.getRowVersion(), reserved);
+    }
+
+        private static void validatePatch(JsonNode patch) throws InvalidPatchException {
+        if (patch == null || !patch.isObject()) {
+            throw new InvalidPatchException("A patch has to be a JSON object.");
+        }
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!PATCHABLE_FIELDS.contains(field.getKey())) {
+                throw new InvalidPatchException(field.getKey() + " cannot be patched.");
+            }
+            if (field.getValue().isNull() && !NULLABLE_FIELDS.contains(field.getKey())) {
+                throw new InvalidPatchException(field.getKey() + " cannot be removed.");
+            }
+        }
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
     public void removeProduct(UUID id) {
         productRepository.deleteById(id);
+        eventOutbox.productDeleted(id);
+        productCache.invalidate(id);
+        AfterCommit.run(() -> searchIndex.remove(id));
     }
 
     @Override
-    public void addStock(UUID id, int quantity) throws ProductNotFoundException {
-        if (productRepository.existsById(id)) {
-            Product tempProduct = productRepository.findById(id).get();
-            int tempStock = tempProduct.getStock();
-            tempProduct.setStock(tempStock+quantity);
-            productRepository.save(tempProduct);
+    @Transactional(rollbackFor = Exception.class)
+    public int addStock(UUID id, int quantity)
+            throws ProductNotFoundException, InsufficientStockException, InvalidQuantityException {
+        if (quantity < 0) {
+            return removeStock(id, -quantity);
+        }
+        if (stockWriteBehind != null) {
+            // only the existence check touches the product, usually in the cache
+            Product product = getProduct(id);
+            if (product == null) {
+                throw productNotFound();
+            }
+            stockWriteBehind.add(id, quantity);
+            return product.getAvailableStock() + (int) stockWriteBehind.pending(id);
+        }
+        StockLevel stock = productRepository.addStock(id, quantity);
+        if (stock == null) {
+            throw productNotFound();
+        }
+        stockChanged(id, stock);
+        return stock.getAvailable();
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int removeStock(UUID id, int quantity)
+            throws ProductNotFoundException, InsufficientStockException, InvalidQuantityException {
+        // a negative quantity would add stock, Integer.MIN_VALUE is what addStock turns into itself
+        if (quantity <= 0) {
+            throw new InvalidQuantityException("quantity has to be positive.");
+        }
+        StockLevel stock = productRepository.removeStock(id, quantity);
+        boolean flushed = false;
+        if (stock == null && pendingStock(id) > 0) {
+            // the units may be among the increases not written yet
+            flushStock(id);
+            flushed = true;
+            stock = productRepository.removeStock(id, quantity);
+        }
+        if (stock == null) {
+            // only the failure case pays for the extra lookup
+            if (productRepository.existsById(id)) {
+                metrics.insufficientStock();
+                throw new InsufficientStockException();
+            }
+            throw productNotFound();
+        }
+        stockChanged(id, stock);
+        // until the commit the flushed deltas still count as pending
+        return flushed ? stock.getAvailable() : stock.getAvailable() + (int) pendingStock(id);
+    }
+
+    /**
+     * Writes the stock increases collected in write-behind mode, one statement for all products.
+     */
+    @Transactional
+    public void flushStockDeltas() {
+        if (stockWriteBehind == null) {
             return;
         }
-        throw new ProductNotFoundException();
+        StockWriteBehind.Drain drain = stockWriteBehind.drain();
+        if (drain != null) {
+            writeStockDeltas(drain);
+        }
+    }
+
+    /**
+     * Writes the stock increases of one product collected in write-behind mode, in the caller's transaction.
+     * Those a running flush has taken are waited for, the caller reads them once it has committed.
+     */
+    private void flushStock(UUID id) {
+        stockWriteBehind.awaitFlush(id, stockFlushWait);
+        StockWriteBehind.Drain drain = stockWriteBehind.drain(id);
+        if (drain != null) {
+            writeStockDeltas(drain);
+        }
+    }
+
+    private void writeStockDeltas(StockWriteBehind.Drain drain) {
+        AfterCommit.onRollback(() -> stockWriteBehind.restore(drain));
+        // deltas of products deleted in the meantime are dropped
+        Map<UUID, StockLevel> stocks = productRepository.addStocks(drain.deltas());
+        stockWriteBehind.checkpoint(drain);
+        stocks.forEach(this::stockChanged);
+        AfterCommit.run(() -> stockWriteBehind.flushed(drain));
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public StockReservation reserveStock(UUID productId, String cartId, int quantity, Duration ttl)
+            throws ProductNotFoundException, InsufficientStockException, InvalidReservationException {
+        if (quantity <= 0) {
+            throw new InvalidReservationException("quantity has to be positive.");
+        }
+        if (cartId == null || cartId.isBlank()) {
+            throw new InvalidReservationException("cartId is required.");
+        }
+        Duration holdFor = ttl == null ? reservationTtl : ttl;
+        if (holdFor.isNegative() || holdFor.isZero() || holdFor.compareTo(maxReservationTtl) > 0) {
+            throw new InvalidReservationException("ttl has to be positive and at most " + maxReservationTtl + ".");
+        }
+
+        // the hold is written first, so a bestseller's row is only locked from the update to the commit
+        StockReservation reservation = reservationRepository.save(
+                new StockReservation(productId, cartId, quantity, Instant.now().plus(holdFor)));
+        entityManager.flush();
+        StockLevel available = productRepository.reserveStock(productId, quantity);
+        if (available == null && pendingStock(productId) > 0) {
+            // the units may be among the increases not written yet, as in removeStock
+            flushStock(productId);
+            available = productRepository.reserveStock(productId, quantity);
+        }
+        if (available == null) {
+            if (productRepository.existsById(productId)) {
+                metrics.insufficientStock();
+                throw new InsufficientStockException();
+            }
+            throw productNotFound();
+        }
+        stockChanged(productId, available);
+        return reservation;
     }
 
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int confirmReservation(UUID reservationId) throws ReservationNotFoundException, ProductNotFoundException {
+        StockReservation reservation = reservationRepository.lockById(reservationId)
+                // an expired hold is no longer counted on, even if the sweeper did not get to it yet
+                .filter(held -> held.getExpiresAt().isAfter(Instant.now()))
+                .orElseThrow(ReservationNotFoundException::new);
+        reservationRepository.delete(reservation);
+        StockLevel available = productRepository.commitReservedStock(reservation.getProductId(), reservation.getQuantity());
+        if (available == null) {
+            throw productNotFound();
+        }
+        stockChanged(reservation.getProductId(), available);
+        return available.getAvailable() + (int) pendingStock(reservation.getProductId());
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void releaseReservation(UUID reservationId) throws ReservationNotFoundException {
+        StockReservation reservation = reservationRepository.lockById(reservationId)
+                .orElseThrow(ReservationNotFoundException::new);
+        reservationRepository.delete(reservation);
+        StockLevel available = productRepository.releaseReservedStock(reservation.getProductId(), reservation.getQuantity());
+        if (available != null) {
+            stockChanged(reservation.getProductId(), available);
+        }
+    }
+
+    /**
+     * Releases up to limit expired holds and returns how many there were.
+     */
+    @Transactional
+    public int releaseExpiredReservations(int limit) {
+        List<StockReservation> expired = reservationRepository.lockExpired(Instant.now(), limit);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        // one update per product, in id order so concurrent sweepers lock products in the same order
+        Map<UUID, Integer> released = new TreeMap<>();
+        List<UUID> ids = new ArrayList<>(expired.size());
+        for (StockReservation reservation : expired) {
+            released.merge(reservation.getProductId(), reservation.getQuantity(), Integer::sum);
+            ids.add(reservation.getId());
+        }
+        reservationRepository.deleteByIds(ids);
+        released.forEach((productId, quantity) -> {
+            StockLevel available = productRepository.releaseReservedStock(productId, quantity);
+            if (available != null) {
+                stockChanged(productId, available);
+            }
+        });
+        return expired.size();
+    }
+
+    // stock that is not held by a reservation
     @Override
     public int getStock(UUID id) throws ProductNotFoundException {
-        if (productRepository.existsById(id)) {
-            Product tempProduct = productRepository.findById(id).get();
-            return tempProduct.getStock();
+        Product product = getProduct(id);
+        if (product != null) {
+            return product.getAvailableStock() + (int) pendingStock(id);
         }
-        throw new ProductNotFoundException();
+        throw productNotFound();
+    }
+
+    @Override
+    public Map<UUID, Integer> getStocks(Collection<UUID> ids) {
+        // straight from the primary in one query, stock checks must not see cached or replicated values
+        return readFromPrimary(() -> {
+            Map<UUID, Integer> stocks = new HashMap<>();
+            for (Product product : productRepository.findAllById(ids)) {
+                stocks.put(product.getId(), product.getAvailableStock() + (int) pendingStock(product.getId()));
+            }
+            return stocks;
+        });
     }
 
     @Override
     public List<Product> searchProduct(String query) throws EmptySearchResultException {
-        if (!productRepository.findByTitleContainingIgnoreCase(query).isEmpty()) {
-            return productRepository.findByTitleContainingIgnoreCase(query);
-        } else if (!productRepository.findByIsbn13ContainingIgnoreCase(query).isEmpty()) {
-            return productRepository.findByIsbn13ContainingIgnoreCase(query);
+        return searchProduct(query, DEFAULT_SEARCH_LIMIT);
+    }
+
+    @Override
+    public List<Product> searchProduct(String query, int limit) throws EmptySearchResultException {
+        List<Product> result = searchResultCache.search(query, limit);
+        if (result.isEmpty()) {
+            metrics.searchEmpty();
+            throw new EmptySearchResultException();
+        }
+        metrics.searchHit();
+        return result;
+    }
+
+    @Override
+    public List<ProductSuggestion> suggestProducts(String prefix, int limit) {
+        // answered from memory, an empty list is a normal answer while typing
+        return searchIndex.suggest(prefix, limit);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ProductFilterResult filterProducts(ProductFilter filter, Pageable pageable)
+            throws InvalidFilterException, FilterNotAvailableException {
+        // the facets and the page need all products in one database
+        if (shardedRepository != null) {
+            throw new FilterNotAvailableException();
         }
-        throw new EmptySearchResultException();
+        if (filter.getMinPrice() != null && filter.getMaxPrice() != null && filter.getMinPrice() > filter.getMaxPrice()) {
+            throw new InvalidFilterException("minPrice must not be greater than maxPrice");
+        }
+
+        Page<Product> page = productRepository.findAll(ProductSpecifications.matching(filter), pageable);
+
+        Map<String, Map<String, Long>> facets = new LinkedHashMap<>();
+        facets.put("language", productRepository.countByAttribute(
+                ProductSpecifications.matching(filter.toBuilder().language(null).build()), "language", FACET_SIZE));
+        facets.put("publishingHouse", productRepository.countByAttribute(
+                ProductSpecifications.matching(filter.toBuilder().publishingHouse(null).build()), "publishingHouse", FACET_SIZE));
+        facets.put("inStock", productRepository.countByStock(
+                ProductSpecifications.matching(filter.toBuilder().inStock(null).build())));
+
+        return ProductFilterResult.builder()
+                .products(page.getContent())
+                .page(page.getNumber())
+                .size(page.getSize())
+                .totalElements(page.getTotalElements())
+                .totalPages(page.getTotalPages())
+                .facets(facets)
+                .build();
+    }
+
+    /**
+     * Runs a read in a transaction that is not read-only, so it is routed to the primary. Without one the
+     * read-only default of the Spring Data repositories would send it to a replica.
+     */
+    private <T> T readFromPrimary(Supplier<T> read) {
+        return new TransactionTemplate(transactionManager).execute(status -> read.get());
+    }
+
+    private ProductNotFoundException productNotFound() {
+        metrics.productNotFound();
+        return new ProductNotFoundException();
+    }
+
+    private long pendingStock(UUID id) {
+        return stockWriteBehind == null ? 0 : stockWriteBehind.pending(id);
+    }
+
+    // stock is published as available stock, like getStock reports it; increases not written yet are left out
+    private void stockChanged(UUID id, StockLevel stock) {
+        eventOutbox.stockChanged(id, stock);
+        productCache.invalidate(id);
+        AfterCommit.run(() -> searchIndex.updateStock(id, stock));
     }
 
 }
@@ -0,0 +1,65 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductFilter;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Translates a {@link ProductFilter} into a {@link Specification}, every criterion maps to an indexed column.
+ */
+public final class ProductSpecifications {
+
+    private ProductSpecifications() {
+    }
+
+    public static Specification<Product> matching(ProductFilter filter) {
+        return Specification.where(hasLanguage(filter.getLanguage()))
+                .and(hasPublishingHouse(filter.getPublishingHouse()))
+                .and(hasAuthor(filter.getAuthor()))
+                .and(costsAtLeast(filter.getMinPrice()))
+                .and(costsAtMost(filter.getMaxPrice()))
+                .and(isInStock(filter.getInStock()));
+    }
+
+    // a null specification is skipped by and()
+    static Specification<Product> hasLanguage(String language) {
+        return language == null ? null : (root, query, cb) -> cb.equal(root.get("language"), language);
+    }
+
+    static Specification<Product> hasPublishingHouse(String publishingHouse) {
+        return publishingHouse == null ? null : (root, query, cb) -> cb.equal(root.get("publishingHouse"), publishingHouse);
+    }
+
+    // authors @> array[author], answered by the GIN index on authors
+    static Specification<Product> hasAuthor(String author) {
+        return author == null ? null : (root, query, cb) ->
+                cb.isTrue(cb.function(ProductFunctionContributor.ARRAY_CONTAINS, Boolean.class,
+                        root.get("authors"), cb.literal(author)));
+    }
+
+    static Specification<Product> costsAtLeast(Float price) {
+        return price == null ? null : (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("price"), price);
+    }
+
+    static Specification<Product> costsAtMost(Float price) {
+        return price == null ? null : (root, query, cb) -> cb.lessThanOrEqualTo(root.get("price"), price);
+    }
+
+    static Specification<Product> isInStock(Boolean inStock) {
+        if (inStock == null) {
+            return null;
+        }
+        return (root, query, cb) -> inStock
+                ? cb.gt(availableStock(root, cb), 0)
+                : cb.le(availableStock(root, cb), 0);
+    }
+
+    // stock - reserved, as getStock reports it; the partial index of db/indexes.sql has the same expression
+    static Expression<Integer> availableStock(Root<Product> root, CriteriaBuilder cb) {
+        return cb.diff(root.<Integer>get("stock"), root.<Integer>get("reserved"));
+    }
+
+}
@@ -0,0 +1,53 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.service.interfaces.ProductStockRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+
+/**
+ * Batched stock update behind {@link ProductStockRepository}, picked up by Spring Data through the Impl suffix.
+ * Runs on the JDBC connection of the surrounding JPA transaction.
+ */
+public class ProductStockRepositoryImpl implements ProductStockRepository {
+
+    // the rows are locked in id order first, so two instances flushing overlapping products cannot deadlock
+    private static final String ADD_STOCKS = "WITH deltas AS (" +
+            "SELECT * FROM unnest(?::uuid[], ?::integer[]) AS d(id, delta)), " +
+            "locked AS (SELECT p.id FROM products p JOIN deltas d ON p.id = d.id ORDER BY p.id FOR UPDATE OF p) " +
+            "UPDATE products p SET stock = p.stock + d.delta, row_version = p.row_version + 1 " +
+            "FROM deltas d WHERE p.id = d.id AND p.id IN (SELECT id FROM locked) " +
+            "RETURNING p.id, p.stock - p.reserved AS available, p.reserved, p.row_version";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ProductStockRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public Map<UUID, StockLevel> addStocks(Map<UUID, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return Map.of();
+        }
+        UUID[] ids = deltas.keySet().toArray(new UUID[0]);
+        Integer[] amounts = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            amounts[i] = deltas.get(ids[i]);
+        }
+
+        Map<UUID, StockLevel> stocks = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(ADD_STOCKS);
+            statement.setArray(1, connection.createArrayOf("uuid", ids));
+            statement.setArray(2, connection.createArrayOf("integer", amounts));
+            return statement;
+        }, row -> {
+            stocks.put(row.getObject("id", UUID.class), StockLevel.of(row.getInt("available"), row.getInt("reserved"), row.getLong("row_version")));
+        });
+        return stocks;
+    }
+
+}
@@ -0,0 +1,288 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Type-ahead completions of titles, authors and isbn13s, ranked by the available stock of all products the
+ * completion belongs to. Every title and author is stored under its folded text and under each of
+ * its word suffixes, so a prefix matches the beginning of any word: "peace" completes "War and Peace".
+ * <p>
+ * A prefix is answered from a range of a sorted map. Short prefixes span large parts of the catalog,
+ * so their top completions are kept once ranked: a stock change updates them in place, only a stock
+ * drop that may let an unlisted completion overtake, or a product being added or removed, drops them.
+ * Owned by {@link ProductSearchIndex}, which serializes all writes.
+ */
+class ProductSuggester {
+
+    // completions kept per cached prefix, larger limits are ranked from the map every time
+    static final int MAX_RANKED = 50;
+    // words of a title or author beyond this only match together with the words before them
+    private static final int MAX_SUFFIX_WORDS = 8;
+    // longer prefixes match few enough keys to be ranked on every request
+    private static final int MAX_CACHED_PREFIX_LENGTH = 6;
+
+    // folded key -> completions stored under it
+    private final ConcurrentSkipListMap<String, Set<Completion>> completions = new ConcurrentSkipListMap<>();
+    private final Map<Completion, Members> members = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, Completion>> keysByProduct = new ConcurrentHashMap<>();
+    private final Map<UUID, Integer> stocks = new ConcurrentHashMap<>();
+    private final Map<String, Ranking> rankings = new ConcurrentHashMap<>();
+    // counts writes, a ranking that overlapped a write is not kept
+    private final AtomicLong writes = new AtomicLong();
+
+    void add(Product product) {
+        Map<String, Completion> keys = new HashMap<>();
+        addKeys(keys, product.getTitle(), ProductSuggestion.Field.TITLE);
+        if (product.getAuthors() != null) {
+            for (String author : product.getAuthors()) {
+                addKeys(keys, author, ProductSuggestion.Field.AUTHOR);
+            }
+        }
+        if (product.getIsbn13() != null) {
+            keys.putIfAbsent(product.getIsbn13().replace("-", "").toLowerCase(Locale.ROOT),
+                    new Completion(product.getIsbn13(), ProductSuggestion.Field.ISBN13));
+        }
+
+        UUID id = product.getId();
+        remove(id);
+        stocks.put(id, product.getAvailableStock());
+        keys.forEach((key, completion) ->
+                completions.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(completion));
+        for (Completion completion : new HashSet<>(keys.values())) {
+            members.computeIfAbsent(completion, c -> new Members()).add(id, product.getAvailableStock());
+        }
+        keysByProduct.put(id, keys);
+        writes.incrementAndGet();
+        forgetRankings(keys.keySet());
+    }
+
+    void remove(UUID id) {
+        Map<String, Completion> keys = keysByProduct.remove(id);
+        Integer stock = stocks.remove(id);
+        if (keys == null) {
+            return;
+        }
+        for (Completion completion : new HashSet<>(keys.values())) {
+            Members withCompletion = members.get(completion);
+            withCompletion.remove(id, stock);
+            if (withCompletion.isEmpty()) {
+                members.remove(completion);
+                keys.forEach((key, value) -> {
+                    if (value.equals(completion)) {
+                        completions.computeIfPresent(key, (k, completionsOfKey) -> {
+                            completionsOfKey.remove(completion);
+                            return completionsOfKey.isEmpty() ? null : completionsOfKey;
+                        });
+                    }
+                });
+            }
+        }
+        writes.incrementAndGet();
+        forgetRankings(keys.keySet());
+    }
+
+    void stockChanged(UUID id, int stock) {
+        Map<String, Completion> keys = keysByProduct.get(id);
+        Integer previous = stocks.replace(id, stock);
+        if (keys == null || previous == null || previous == stock) {
+            return;
+        }
+        Set<Completion> changed = new HashSet<>(keys.values());
+        for (Completion completion : changed) {
+            members.get(completion).changeStock(stock - previous);
+        }
+        writes.incrementAndGet();
+        for (Map.Entry<String, Completion> key : keys.entrySet()) {
+            for (String prefix : cachedPrefixes(key.getKey())) {
+                Completion completion = key.getValue();
+                rankings.computeIfPresent(prefix, (p, ranking) -> ranking.rerank(completion, members.get(completion)));
+            }
+        }
+    }
+
+    List<ProductSuggestion> suggest(String prefix, int limit) {
+        String key = fold(prefix);
+        if (key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        if (key.length() > MAX_CACHED_PREFIX_LENGTH || limit > MAX_RANKED) {
+            return rank(key, limit).suggestions(limit);
+        }
+
+        Ranking ranking = rankings.get(key);
+        if (ranking == null) {
+            long writesBefore = writes.get();
+            ranking = rank(key, MAX_RANKED);
+            rankings.put(key, ranking);
+            if (writes.get() != writesBefore) {
+                rankings.remove(key, ranking);
+            }
+        }
+        return ranking.suggestions(limit);
+    }
+
+    private Ranking rank(String key, int limit) {
+        Set<Completion> candidates = new HashSet<>();
+        for (Set<Completion> completionsOfKey : completions.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+            candidates.addAll(completionsOfKey);
+        }
+
+        PriorityQueue<Ranked> top = new PriorityQueue<>(limit + 1, Ranked.BY_STOCK);
+        for (Completion completion : candidates) {
+            Members withCompletion = members.get(completion);
+            if (withCompletion == null) {
+                continue;
+            }
+            top.offer(new Ranked(completion, withCompletion.stock(), withCompletion.onlyProduct()));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Ranked> ranked = new ArrayList<>(top);
+        ranked.sort(Ranked.BY_STOCK.reversed());
+        return new Ranking(List.copyOf(ranked), candidates.size() <= limit, limit);
+    }
+
+    private void forgetRankings(Set<String> keys) {
+        if (rankings.isEmpty()) {
+            return;
+        }
+        for (String key : keys) {
+            for (String prefix : cachedPrefixes(key)) {
+                rankings.remove(prefix);
+            }
+        }
+    }
+
+    private static List<String> cachedPrefixes(String key) {
+        List<String> prefixes = new ArrayList<>(MAX_CACHED_PREFIX_LENGTH);
+        for (int length = 1; length <= Math.min(MAX_CACHED_PREFIX_LENGTH, key.length()); length++) {
+            prefixes.add(key.substring(0, length));
+        }
+        return prefixes;
+    }
+
+    private static void addKeys(Map<String, Completion> keys, String text, ProductSuggestion.Field field) {
+        List<String> words = ProductSearchIndex.tokenize(text);
+        for (int i = 0; i < Math.min(words.size(), MAX_SUFFIX_WORDS); i++) {
+            keys.putIfAbsent(String.join(" ", words.subList(i, words.size())), new Completion(text, field));
+        }
+    }
+
+    // folded like the indexed text, a trailing separator is kept so "war " does not complete "warden"
+    static String fold(String prefix) {
+        String key = String.join(" ", ProductSearchIndex.tokenize(prefix));
+        char last = prefix.isEmpty() ? ' ' : prefix.charAt(prefix.length() - 1);
+        return !key.isEmpty() && !Character.isLetterOrDigit(last) ? key + " " : key;
+    }
+
+    private record Completion(String text, ProductSuggestion.Field field) {
+    }
+
+    // the products a completion belongs to and their total stock
+    private static class Members {
+
+        private final Map<UUID, Boolean> ids = new ConcurrentHashMap<>();
+        private volatile long stock;
+
+        void add(UUID id, int stock) {
+            ids.put(id, true);
+            this.stock += stock;
+        }
+
+        void remove(UUID id, Integer stock) {
+            ids.remove(id);
+            this.stock -= stock == null ? 0 : stock;
+        }
+
+        void changeStock(int delta) {
+            stock += delta;
+        }
+
+        long stock() {
+            return stock;
+        }
+
+        boolean isEmpty() {
+            return ids.isEmpty();
+        }
+
+        // an author with several books or a title with several editions has no single product
+        UUID onlyProduct() {
+            Iterator<UUID> iterator = ids.keySet().iterator();
+            UUID id = iterator.hasNext() ? iterator.next() : null;
+            return iterator.hasNext() ? null : id;
+        }
+    }
+
+    private record Ranked(Completion completion, long stock, UUID productId) {
+
+        static final Comparator<Ranked> BY_STOCK = Comparator.comparingLong(Ranked::stock);
+
+        ProductSuggestion toSuggestion() {
+            return ProductSuggestion.builder()
+                    .text(completion.text())
+                    .field(completion.field())
+                    .productId(productId)
+                    .build();
+        }
+    }
+
+    /**
+     * The best completions of a prefix, best first. Complete if it holds every completion of the prefix.
+     */
+    private record Ranking(List<Ranked> ranked, boolean complete, int limit) {
+
+        List<ProductSuggestion> suggestions(int count) {
+            List<ProductSuggestion> suggestions = new ArrayList<>(Math.min(count, ranked.size()));
+            for (int i = 0; i < Math.min(count, ranked.size()); i++) {
+                suggestions.add(ranked.get(i).toSuggestion());
+            }
+            return suggestions;
+        }
+
+        /**
+         * The ranking after the total stock of a completion changed, or null if that cannot be told
+         * without ranking the prefix again.
+         */
+        Ranking rerank(Completion completion, Members changed) {
+            long lowest = ranked.isEmpty() ? Long.MIN_VALUE : ranked.get(ranked.size() - 1).stock();
+            List<Ranked> updated = new ArrayList<>(ranked.size() + 1);
+            boolean listed = false;
+            for (Ranked entry : ranked) {
+                if (entry.completion().equals(completion)) {
+                    listed = true;
+                } else {
+                    updated.add(entry);
+                }
+            }
+
+            if (!listed) {
+                if (complete) {
+                    // cannot happen for a complete ranking, play safe
+                    return null;
+                }
+                if (changed.stock() <= lowest) {
+                    return this;
+                }
+            } else if (!complete && changed.stock() < lowest) {
+                // dropped below the lowest listed completion, an unlisted one may now be ahead of it
+                return null;
+            }
+
+            updated.add(new Ranked(completion, changed.stock(), changed.onlyProduct()));
+            updated.sort(Ranked.BY_STOCK.reversed());
+            if (updated.size() > limit) {
+                updated.remove(updated.size() - 1);
+            }
+            return new Ranking(List.copyOf(updated), complete, limit);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.service.interfaces.ProductUpsertRepository;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.*;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * PostgreSQL upsert behind {@link ProductUpsertRepository}, picked up by Spring Data through the Impl suffix.
+ * Runs on the JDBC connection of the surrounding JPA transaction.
+ */
+public class ProductUpsertRepositoryImpl implements ProductUpsertRepository {
+
+    static final String COLUMNS = "id, isbn13, title, version, authors, publishing_date, publishing_house, " +
+            "description, language, pages, cover_url, price, stock, row_version, reserved";
+
+    private static final String CATALOG_COLUMNS = "title, version, authors, publishing_date, publishing_house, " +
+            "description, language, pages, cover_url, price";
+
+    // xmax is 0 only for a row this statement inserted. When the WHERE skips the update nothing is
+    // returned from the insert, then the second branch reads the unchanged row
+    private static final String UPSERT = "WITH upserted AS (" +
+            "INSERT INTO products AS p (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0) " +
+            "ON CONFLICT (isbn13) DO UPDATE SET (" + CATALOG_COLUMNS + ", row_version) = (" +
+            excluded(CATALOG_COLUMNS) + ", p.row_version + 1) " +
+            "WHERE (" + qualified("p", CATALOG_COLUMNS) + ") IS DISTINCT FROM (" + excluded(CATALOG_COLUMNS) + ") " +
+            "RETURNING " + qualified("p", COLUMNS) + ", (p.xmax = 0) AS inserted) " +
+            "SELECT " + COLUMNS + ", CASE WHEN inserted THEN 'CREATED' ELSE 'UPDATED' END AS status FROM upserted " +
+            "UNION ALL " +
+            "SELECT " + COLUMNS + ", 'UNCHANGED' FROM products WHERE isbn13 = ? AND NOT EXISTS (SELECT 1 FROM upserted)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ProductUpsertRepositoryImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public ProductUpsertResult upsertByIsbn13(Product product) {
+        List<ProductUpsertResult> results = jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPSERT);
+            // the sharded storage decides the id up front, it picks the shard
+            statement.setObject(1, product.getId() != null ? product.getId() : UUID.randomUUID());
+            statement.setString(2, product.getIsbn13());
+            statement.setString(3, product.getTitle());
+            statement.setString(4, product.getVersion());
+            statement.setArray(5, connection.createArrayOf("varchar", product.getAuthors()));
+            statement.setTimestamp(6, new Timestamp(product.getPublishingDate().getTime()));
+            statement.setString(7, product.getPublishingHouse());
+            statement.setString(8, product.getDescription());
+            statement.setString(9, product.getLanguage());
+            statement.setInt(10, product.getPages());
+            statement.setString(11, product.getCoverUrl());
+            statement.setFloat(12, product.getPrice());
+            statement.setInt(13, product.getStock());
+            statement.setString(14, product.getIsbn13());
+            return statement;
+        }, (row, rowNumber) -> new ProductUpsertResult(
+                ProductUpsertResult.Status.valueOf(row.getString("status")), toProduct(row)));
+
+        if (results.isEmpty()) {
+            // the conflicting row was committed after this statement took its snapshot, it is visible now
+            return jdbcTemplate.query("SELECT " + COLUMNS + " FROM products WHERE isbn13 = ?",
+                    (row, rowNumber) -> new ProductUpsertResult(ProductUpsertResult.Status.UNCHANGED, toProduct(row)),
+                    product.getIsbn13()).get(0);
+        }
+        return results.get(0);
+    }
+
+    static Product toProduct(ResultSet row) throws SQLException {
+        return new Product(row.getObject("id", UUID.class), row.getString("isbn13"), row.getString("title"),
+                row.getString("version"), (String[]) row.getArray("authors").getArray(),
+                new java.util.Date(row.getTimestamp("publishing_date").getTime()), row.getString("publishing_house"),
+                row.getString("description"), row.getString("language"), row.getInt("pages"),
+                row.getString("cover_url"), row.getFloat("price"), row.getInt("stock"), row.getLong("row_version"),
+                row.getInt("reserved"));
+    }
+
+    private static String excluded(String columns) {
+        return qualified("EXCLUDED", columns);
+    }
+
+    private static String qualified(String table, String columns) {
+        return table + "." + columns.replace(", ", ", " + table + ".");
+    }
+
+}
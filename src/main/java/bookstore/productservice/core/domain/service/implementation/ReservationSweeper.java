@@ -0,0 +1,39 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives the stock of abandoned carts back once their holds expired. Every batch is its own
+ * transaction and skips holds locked elsewhere, so several instances can sweep at the same time.
+ */
+@Slf4j
+@Component
+public class ReservationSweeper {
+
+    @Autowired
+    @Setter
+    private ProductService productService;
+
+    @Value("${productservice.reservations.sweep-batch-size:500}")
+    @Setter
+    private int batchSize;
+
+    @Scheduled(fixedDelayString = "${productservice.reservations.sweep-interval-millis:1000}")
+    public void sweep() {
+        try {
+            int released;
+            do {
+                released = productService.releaseExpiredReservations(batchSize);
+            } while (released == batchSize);
+        } catch (RuntimeException e) {
+            // the holds are still there and are picked up again on the next run
+            log.warn("Releasing expired reservations failed", e);
+        }
+    }
+
+}
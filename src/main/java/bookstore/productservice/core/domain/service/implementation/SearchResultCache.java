@@ -0,0 +1,80 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Results of {@link ProductSearchIndex#search} by normalized query. Empty results are cached as well.
+ * Keys carry the index version, so any change to the index makes older results unreachable instead
+ * of evicting them; stock changes do not count, results share the product instances of the index.
+ * Concurrent identical queries wait for the first one instead of searching themselves.
+ */
+@Component
+public class SearchResultCache implements MeterBinder {
+
+    private final AsyncCache<Key, List<Product>> results;
+
+    @Autowired
+    @Setter
+    private ProductSearchIndex searchIndex;
+
+    @Autowired
+    public SearchResultCache(@Value("${productservice.search-cache.maximum-size:10000}") long maximumSize,
+                             @Value("${productservice.search-cache.expire-after-write:1m}") Duration expireAfterWrite) {
+        this.results = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+    }
+
+    public List<Product> search(String query, int limit) {
+        Key key = new Key(normalize(query), limit, searchIndex.version());
+        CompletableFuture<List<Product>> cached = results.getIfPresent(key);
+        if (cached != null) {
+            return cached.join();
+        }
+
+        // not computed inside the cache, a waiting virtual thread would pin its carrier on the map lock
+        CompletableFuture<List<Product>> search = new CompletableFuture<>();
+        CompletableFuture<List<Product>> inProgress = results.asMap().putIfAbsent(key, search);
+        if (inProgress != null) {
+            return inProgress.join();
+        }
+        try {
+            search.complete(List.copyOf(searchIndex.search(query, limit)));
+        } catch (RuntimeException e) {
+            // a failed search is removed from the cache again
+            search.completeExceptionally(e);
+            throw e;
+        }
+        return search.join();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, results, "search");
+    }
+
+    // the order and repetition of tokens does not change the hits, "War  and peace" is "and peace war"
+    static String normalize(String query) {
+        return String.join(" ", new TreeSet<>(ProductSearchIndex.tokenize(query)));
+    }
+
+    private record Key(String query, int limit, long indexVersion) {
+    }
+
+}
@@ -0,0 +1,122 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+import static bookstore.productservice.core.domain.service.implementation.ProductUpsertRepositoryImpl.COLUMNS;
+
+/**
+ * Offline tool that moves every product to the shard the {@link ShardRouter} assigns it to, after shards
+ * were added or retired. Nothing else may write products while it runs, see ShardingConfig.
+ * <p>
+ * A product is copied before it is deleted from its old shard, so an interrupted run is simply started again.
+ * The isbn13 directory holds ids only and stays as it is.
+ */
+@Slf4j
+public class ShardRebalancer {
+
+    private static final String SELECT_PAGE = "SELECT " + COLUMNS + " FROM products WHERE id > ? ORDER BY id LIMIT ?";
+
+    // the row version and the reserved units move with the product
+    private static final String COPY = "INSERT INTO products (" + COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT (id) DO NOTHING";
+
+    private static final UUID FIRST_ID = new UUID(0, 0);
+
+    private final List<JdbcTemplate> shards;
+    private final List<JdbcTemplate> retired;
+    private final ShardRouter router;
+    private final int batchSize;
+
+    public ShardRebalancer(List<JdbcTemplate> shards, List<JdbcTemplate> retired, ShardRouter router, int batchSize) {
+        this.shards = List.copyOf(shards);
+        this.retired = List.copyOf(retired);
+        this.router = router;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the number of products moved.
+     */
+    public long rebalance() {
+        long moved = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            moved += drain(shards.get(shard), shard);
+        }
+        // every product of a retired shard is misplaced
+        for (JdbcTemplate shard : retired) {
+            moved += drain(shard, -1);
+        }
+        return moved;
+    }
+
+    private long drain(JdbcTemplate source, int sourceShard) {
+        long moved = 0;
+        UUID after = FIRST_ID;
+        while (true) {
+            List<Product> page = source.query(SELECT_PAGE,
+                    (row, rowNumber) -> ProductUpsertRepositoryImpl.toProduct(row), after, batchSize);
+            if (page.isEmpty()) {
+                return moved;
+            }
+            Map<Integer, List<Product>> misplaced = new TreeMap<>();
+            for (Product product : page) {
+                int target = router.shardOf(product.getId());
+                if (target != sourceShard) {
+                    misplaced.computeIfAbsent(target, key -> new ArrayList<>()).add(product);
+                }
+            }
+            for (Map.Entry<Integer, List<Product>> move : misplaced.entrySet()) {
+                copy(shards.get(move.getKey()), move.getValue());
+                UUID[] ids = move.getValue().stream().map(Product::getId).toArray(UUID[]::new);
+                source.update(connection -> {
+                    PreparedStatement statement = connection.prepareStatement("DELETE FROM products WHERE id = ANY(?)");
+                    statement.setArray(1, connection.createArrayOf("uuid", ids));
+                    return statement;
+                });
+                moved += ids.length;
+                log.info("Moved {} products to {}", ids.length, router.name(move.getKey()));
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+    }
+
+    private static void copy(JdbcTemplate target, List<Product> products) {
+        target.batchUpdate(COPY, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement statement, int i) throws SQLException {
+                Product product = products.get(i);
+                statement.setObject(1, product.getId());
+                statement.setString(2, product.getIsbn13());
+                statement.setString(3, product.getTitle());
+                statement.setString(4, product.getVersion());
+                statement.setArray(5, product.getAuthors() == null ? null
+                        : statement.getConnection().createArrayOf("varchar", product.getAuthors()));
+                statement.setTimestamp(6, product.getPublishingDate() == null ? null
+                        : new Timestamp(product.getPublishingDate().getTime()));
+                statement.setString(7, product.getPublishingHouse());
+                statement.setString(8, product.getDescription());
+                statement.setString(9, product.getLanguage());
+                statement.setInt(10, product.getPages());
+                statement.setString(11, product.getCoverUrl());
+                statement.setFloat(12, product.getPrice());
+                statement.setInt(13, product.getStock());
+                statement.setLong(14, product.getRowVersion());
+                statement.setInt(15, product.getReserved());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return products.size();
+            }
+        });
+    }
+
+}
@@ -0,0 +1,67 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Picks the shard of a product by rendezvous hashing of its id: every shard scores the id and the
+ * highest score wins. Adding a shard only moves the products it now wins, about 1/n of them,
+ * every other product stays where it is.
+ * <p>
+ * Shards are scored by their name, so the order in which they are configured does not matter.
+ */
+public class ShardRouter {
+
+    private final List<String> names;
+    private final long[] seeds;
+
+    public ShardRouter(List<String> names) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        this.names = List.copyOf(names);
+        this.seeds = new long[names.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = seed(names.get(i));
+        }
+    }
+
+    public int shardOf(UUID id) {
+        long key = id.getMostSignificantBits() ^ mix(id.getLeastSignificantBits());
+        int best = 0;
+        long bestScore = Long.MIN_VALUE;
+        for (int i = 0; i < seeds.length; i++) {
+            long score = mix(key ^ seeds[i]);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    public String name(int shard) {
+        return names.get(shard);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    private static long seed(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    // finalizer of SplitMix64, spreads every input bit over the whole word
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,527 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductSummary;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.service.interfaces.IProductRepository;
+import lombok.Value;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.repository.query.FluentQuery;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static bookstore.productservice.core.domain.service.implementation.ProductUpsertRepositoryImpl.COLUMNS;
+import static bookstore.productservice.core.domain.service.interfaces.IProductRepository.STOCK_LEVEL;
+
+/**
+ * {@link IProductRepository} over several PostgreSQL databases, each holding the products the
+ * {@link ShardRouter} assigns to it. Reads of a single product go to its shard, listings and searches
+ * ask all shards in parallel and merge the results. Lookups by isbn13 go through the {@link IsbnDirectory}.
+ * <p>
+ * Shard writes are not part of the transaction of the caller. Every write is a single statement,
+ * inserts, updates and stock changes are undone when the transaction rolls back and deletes only run once
+ * it committed. An update is only undone while the product was not changed again since.
+ * The filter (specifications and facets) is not available, it needs all products in one database.
+ */
+public class ShardedProductRepository implements IProductRepository {
+
+    // the order of uuid columns in PostgreSQL, byte by byte, which is not the order of UUID.compareTo
+    static final Comparator<UUID> ID_ORDER = Comparator
+            .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    private static final int STREAM_PAGE_SIZE = 500;
+
+    private static final String SELECT = "SELECT " + COLUMNS + " FROM products ";
+    private static final String SELECT_SUMMARY = "SELECT id, isbn13, title, price, stock, reserved, cover_url FROM products ";
+
+    private static final String INSERT = "INSERT INTO products (" + COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, 0)";
+
+    private static final String UPDATE = "UPDATE products SET isbn13 = ?, title = ?, version = ?, authors = ?, " +
+            "publishing_date = ?, publishing_house = ?, description = ?, language = ?, pages = ?, cover_url = ?, " +
+            "price = ?, stock = ?, row_version = row_version + 1 WHERE id = ? AND row_version = ? RETURNING " + COLUMNS;
+
+    // the stock statements of IProductRepository, quantity first
+    private static final String ADD_STOCK = "UPDATE products SET stock = stock + ?, row_version = row_version + 1 " +
+            "WHERE id = ? RETURNING " + STOCK_LEVEL;
+    private static final String REMOVE_STOCK = "UPDATE products SET stock = stock - ?, row_version = row_version + 1 " +
+            "WHERE id = ? AND stock - reserved >= ? RETURNING " + STOCK_LEVEL;
+    private static final String RESERVE_STOCK = "UPDATE products SET reserved = reserved + ?, row_version = row_version + 1 " +
+            "WHERE id = ? AND stock - reserved >= ? RETURNING " + STOCK_LEVEL;
+    private static final String COMMIT_RESERVED_STOCK = "UPDATE products SET stock = stock - ?, reserved = reserved - ?, " +
+            "row_version = row_version + 1 WHERE id = ? RETURNING " + STOCK_LEVEL;
+    private static final String RELEASE_RESERVED_STOCK = "UPDATE products SET reserved = reserved - ?, " +
+            "row_version = row_version + 1 WHERE id = ? RETURNING " + STOCK_LEVEL;
+
+    private static final RowMapper<StockLevel> LEVEL = (row, rowNumber) -> StockLevel.of(
+            row.getInt("available"), row.getInt("reserved"), row.getLong("rowVersion"));
+    private static final RowMapper<Product> PRODUCT = (row, rowNumber) -> ProductUpsertRepositoryImpl.toProduct(row);
+    private static final RowMapper<ProductSummary> SUMMARY = (row, rowNumber) -> new Summary(
+            row.getObject("id", UUID.class), row.getString("isbn13"), row.getString("title"),
+            row.getFloat("price"), row.getInt("stock"), row.getInt("reserved"), row.getString("cover_url"));
+
+    private final List<JdbcTemplate> shards;
+    private final ShardRouter router;
+    private final IsbnDirectory directory;
+    private final Executor executor;
+
+    private final List<ProductUpsertRepositoryImpl> upserts = new ArrayList<>();
+    private final List<ProductStockRepositoryImpl> stocks = new ArrayList<>();
+
+    public ShardedProductRepository(List<JdbcTemplate> shards, ShardRouter router, IsbnDirectory directory, Executor executor) {
+        if (shards.size() != router.size()) {
+            throw new IllegalArgumentException("Expected " + router.size() + " shards, got " + shards.size());
+        }
+        this.shards = List.copyOf(shards);
+        this.router = router;
+        this.directory = directory;
+        this.executor = executor;
+        for (JdbcTemplate shard : shards) {
+            upserts.add(new ProductUpsertRepositoryImpl(shard));
+            stocks.add(new ProductStockRepositoryImpl(shard));
+        }
+    }
+
+    // ---- single products
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S extends Product> S save(S product) {
+        if (product.getId() == null) {
+            return insert(product, UUID.randomUUID());
+        }
+        Optional<Product> stored = findById(product.getId());
+        if (stored.isEmpty()) {
+            return insert(product, product.getId());
+        }
+        return (S) update(stored.get(), product);
+    }
+
+    @Override
+    public <S extends Product> Iterable<S> saveAll(Iterable<S> products) {
+        List<S> saved = new ArrayList<>();
+        for (S product : products) {
+            saved.add(save(product));
+        }
+        return saved;
+    }
+
+    @Override
+    public Optional<Product> findById(UUID id) {
+        return shardOf(id).query(SELECT + "WHERE id = ?", PRODUCT, id).stream().findFirst();
+    }
+
+    @Override
+    public boolean existsById(UUID id) {
+        return !shardOf(id).queryForList("SELECT 1 FROM products WHERE id = ?", Integer.class, id).isEmpty();
+    }
+
+    @Override
+    public Product findByIsbn13(String isbn13) {
+        return directory.find(isbn13).flatMap(this::findById).orElse(null);
+    }
+
+    @Override
+    public Set<String> findExistingIsbn13s(Collection<String> isbns) {
+        return directory.existing(isbns);
+    }
+
+    @Override
+    public ProductUpsertResult upsertByIsbn13(Product product) {
+        String isbn13 = product.getIsbn13();
+        UUID id = directory.find(isbn13).orElseGet(() -> directory.claim(isbn13, UUID.randomUUID()));
+        product.setId(id);
+        JdbcTemplate shard = shardOf(id);
+        ProductUpsertResult result = upserts.get(router.shardOf(id)).upsertByIsbn13(product);
+        if (result.getStatus() == ProductUpsertResult.Status.CREATED) {
+            AfterCommit.onRollback(() -> shard.update("DELETE FROM products WHERE id = ?", id));
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteById(UUID id) {
+        Product product = findById(id).orElseThrow(() ->
+                new EmptyResultDataAccessException("No product with id " + id + " exists", 1));
+        delete(product);
+    }
+
+    @Override
+    public void delete(Product product) {
+        UUID id = product.getId();
+        directory.release(product.getIsbn13(), id);
+        JdbcTemplate shard = shardOf(id);
+        AfterCommit.run(() -> shard.update("DELETE FROM products WHERE id = ?", id));
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends UUID> ids) {
+        for (UUID id : ids) {
+            deleteById(id);
+        }
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Product> products) {
+        for (Product product : products) {
+            delete(product);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        directory.clear();
+        AfterCommit.run(() -> fanOut(shard -> List.of(shard.update("DELETE FROM products"))));
+    }
+
+    // ---- stock, undone on the shard when the surrounding transaction rolls back
+
+    @Override
+    public StockLevel addStock(UUID id, int quantity) {
+        StockLevel stock = updateStock(id, ADD_STOCK, quantity, id);
+        undoOnRollback(stock, id, ADD_STOCK, -quantity, id);
+        return stock;
+    }
+
+    @Override
+    public StockLevel removeStock(UUID id, int quantity) {
+        StockLevel stock = updateStock(id, REMOVE_STOCK, quantity, id, quantity);
+        undoOnRollback(stock, id, ADD_STOCK, quantity, id);
+        return stock;
+    }
+
+    @Override
+    public StockLevel reserveStock(UUID id, int quantity) {
+        StockLevel available = updateStock(id, RESERVE_STOCK, quantity, id, quantity);
+        undoOnRollback(available, id, RELEASE_RESERVED_STOCK, quantity, id);
+        return available;
+    }
+
+    @Override
+    public StockLevel commitReservedStock(UUID id, int quantity) {
+        StockLevel stock = updateStock(id, COMMIT_RESERVED_STOCK, quantity, quantity, id);
+        undoOnRollback(stock, id, COMMIT_RESERVED_STOCK, -quantity, -quantity, id);
+        return stock;
+    }
+
+    @Override
+    public StockLevel releaseReservedStock(UUID id, int quantity) {
+        StockLevel available = updateStock(id, RELEASE_RESERVED_STOCK, quantity, id);
+        undoOnRollback(available, id, RELEASE_RESERVED_STOCK, -quantity, id);
+        return available;
+    }
+
+    @Override
+    public Map<UUID, StockLevel> addStocks(Map<UUID, Integer> deltas) {
+        Map<Integer, Map<UUID, Integer>> byShard = new HashMap<>();
+        deltas.forEach((id, delta) -> byShard.computeIfAbsent(router.shardOf(id), shard -> new HashMap<>()).put(id, delta));
+        Map<UUID, StockLevel> stock = new HashMap<>();
+        byShard.forEach((shard, shardDeltas) -> {
+            Map<UUID, StockLevel> shardStock = stocks.get(shard).addStocks(shardDeltas);
+            stock.putAll(shardStock);
+            // only the products that were found, the others were not changed
+            Map<UUID, Integer> undo = new HashMap<>();
+            shardStock.keySet().forEach(id -> undo.put(id, -shardDeltas.get(id)));
+            if (!undo.isEmpty()) {
+                AfterCommit.onRollback(() -> stocks.get(shard).addStocks(undo));
+            }
+        });
+        return stock;
+    }
+
+    // ---- listings and searches over all shards
+
+    @Override
+    public List<Product> findAll() {
+        return fanOut(shard -> shard.query(SELECT, PRODUCT));
+    }
+
+    @Override
+    public Iterable<Product> findAllById(Iterable<UUID> ids) {
+        Map<Integer, List<UUID>> byShard = new HashMap<>();
+        for (UUID id : ids) {
+            byShard.computeIfAbsent(router.shardOf(id), shard -> new ArrayList<>()).add(id);
+        }
+        List<CompletableFuture<List<Product>>> queries = new ArrayList<>();
+        byShard.forEach((shard, shardIds) -> queries.add(CompletableFuture.supplyAsync(() -> shards.get(shard).query(
+                connection -> {
+                    PreparedStatement statement = connection.prepareStatement(SELECT + "WHERE id = ANY(?)");
+                    statement.setArray(1, connection.createArrayOf("uuid", shardIds.toArray()));
+                    return statement;
+                }, PRODUCT), executor)));
+        return joinAll(queries);
+    }
+
+    @Override
+    public long count() {
+        return fanOut(shard -> List.of(shard.queryForObject("SELECT count(*) FROM products", Long.class)))
+                .stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public List<Product> findByTitle(String title) {
+        return fanOut(shard -> shard.query(SELECT + "WHERE title = ?", PRODUCT, title));
+    }
+
+    @Override
+    public List<Product> findByTitleContainingIgnoreCase(String title) {
+        return fanOut(shard -> shard.query(SELECT + "WHERE upper(title) LIKE upper(?) ESCAPE '\\'", PRODUCT, containing(title)));
+    }
+
+    @Override
+    public List<Product> findByIsbn13ContainingIgnoreCase(String isbn13) {
+        return fanOut(shard -> shard.query(SELECT + "WHERE upper(isbn13) LIKE upper(?) ESCAPE '\\'", PRODUCT, containing(isbn13)));
+    }
+
+    @Override
+    public List<Product> findAllByOrderByIdAsc(Pageable pageable) {
+        return pageById(SELECT, PRODUCT, Product::getId, null, pageable);
+    }
+
+    @Override
+    public List<Product> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable) {
+        return pageById(SELECT, PRODUCT, Product::getId, id, pageable);
+    }
+
+    @Override
+    public <T> List<T> findAllByOrderByIdAsc(Pageable pageable, Class<T> type) {
+        return summaries(null, pageable, type);
+    }
+
+    @Override
+    public <T> List<T> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable, Class<T> type) {
+        return summaries(id, pageable, type);
+    }
+
+    /**
+     * Walks the shards one after the other in pages, no connection is held between two pages.
+     */
+    @Override
+    public Stream<Product> streamAll() {
+        return IntStream.range(0, shards.size()).boxed().flatMap(shard -> Stream.iterate(
+                        page(shards.get(shard), null),
+                        page -> !page.isEmpty(),
+                        page -> page.size() < STREAM_PAGE_SIZE ? List.of() : page(shards.get(shard), page.get(page.size() - 1).getId()))
+                .flatMap(List::stream));
+    }
+
+    // ---- the filter, not available on several databases
+
+    @Override
+    public Optional<Product> findOne(Specification<Product> spec) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public List<Product> findAll(Specification<Product> spec) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public Page<Product> findAll(Specification<Product> spec, Pageable pageable) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public List<Product> findAll(Specification<Product> spec, Sort sort) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public long count(Specification<Product> spec) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public boolean exists(Specification<Product> spec) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public long delete(Specification<Product> spec) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public <S extends Product, R> R findBy(Specification<Product> spec, Function<FluentQuery.FetchableFluentQuery<S>, R> queryFunction) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public Map<String, Long> countByAttribute(Specification<Product> spec, String attribute, int limit) {
+        throw filterNotAvailable();
+    }
+
+    @Override
+    public Map<String, Long> countByStock(Specification<Product> spec) {
+        throw filterNotAvailable();
+    }
+
+    // ---- helpers
+
+    private <S extends Product> S insert(S product, UUID id) {
+        directory.claimOrFail(product.getIsbn13(), id);
+        JdbcTemplate shard = shardOf(id);
+        shard.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(INSERT);
+            statement.setObject(1, id);
+            bind(statement, connection, product, 2);
+            return statement;
+        });
+        AfterCommit.onRollback(() -> shard.update("DELETE FROM products WHERE id = ?", id));
+        product.setId(id);
+        return product;
+    }
+
+    private Product update(Product stored, Product product) {
+        UUID id = product.getId();
+        boolean isbn13Changed = !stored.getIsbn13().equals(product.getIsbn13());
+        if (isbn13Changed) {
+            directory.claimOrFail(product.getIsbn13(), id);
+        }
+        List<Product> updated = write(product, product.getRowVersion());
+        if (updated.isEmpty()) {
+            throw new ObjectOptimisticLockingFailureException(Product.class, id);
+        }
+        // the stored row is written back unless the product was changed again in the meantime
+        long rowVersion = updated.get(0).getRowVersion();
+        AfterCommit.onRollback(() -> write(stored, rowVersion));
+        if (isbn13Changed) {
+            directory.release(stored.getIsbn13(), id);
+        }
+        return updated.get(0);
+    }
+
+    private List<Product> write(Product product, long expectedRowVersion) {
+        return shardOf(product.getId()).query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPDATE);
+            bind(statement, connection, product, 1);
+            statement.setObject(13, product.getId());
+            statement.setLong(14, expectedRowVersion);
+            return statement;
+        }, PRODUCT);
+    }
+
+    // isbn13 to stock, the twelve columns after the id
+    private static void bind(PreparedStatement statement, Connection connection, Product product, int first) throws SQLException {
+        statement.setString(first, product.getIsbn13());
+        statement.setString(first + 1, product.getTitle());
+        statement.setString(first + 2, product.getVersion());
+        statement.setArray(first + 3, product.getAuthors() == null ? null : connection.createArrayOf("varchar", product.getAuthors()));
+        statement.setTimestamp(first + 4, product.getPublishingDate() == null ? null : new Timestamp(product.getPublishingDate().getTime()));
+        statement.setString(first + 5, product.getPublishingHouse());
+        statement.setString(first + 6, product.getDescription());
+        statement.setString(first + 7, product.getLanguage());
+        statement.setInt(first + 8, product.getPages());
+        statement.setString(first + 9, product.getCoverUrl());
+        statement.setFloat(first + 10, product.getPrice());
+        statement.setInt(first + 11, product.getStock());
+    }
+
+    private StockLevel updateStock(UUID id, String sql, Object... args) {
+        List<StockLevel> result = shardOf(id).query(sql, LEVEL, args);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private void undoOnRollback(StockLevel result, UUID id, String sql, Object... args) {
+        if (result != null) {
+            // queried, the stock statements return a row
+            AfterCommit.onRollback(() -> shardOf(id).query(sql, LEVEL, args));
+        }
+    }
+
+    /**
+     * Every shard returns its first offset + size products after the cursor, the page is taken from all of them.
+     */
+    private <T> List<T> pageById(String select, RowMapper<T> mapper, Function<T, UUID> id, UUID after, Pageable pageable) {
+        long limit = pageable.getOffset() + pageable.getPageSize();
+        List<T> merged = after == null
+                ? fanOut(shard -> shard.query(select + "ORDER BY id LIMIT ?", mapper, limit))
+                : fanOut(shard -> shard.query(select + "WHERE id > ? ORDER BY id LIMIT ?", mapper, after, limit));
+        return merged.stream()
+                .sorted(Comparator.comparing(id, ID_ORDER))
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .toList();
+    }
+
+    private <T> List<T> summaries(UUID after, Pageable pageable, Class<T> type) {
+        if (type != ProductSummary.class) {
+            throw new UnsupportedOperationException("Only ProductSummary projections are supported on sharded storage");
+        }
+        return pageById(SELECT_SUMMARY, SUMMARY, ProductSummary::getId, after, pageable).stream().map(type::cast).toList();
+    }
+
+    private static List<Product> page(JdbcTemplate shard, UUID after) {
+        return after == null
+                ? shard.query(SELECT + "ORDER BY id LIMIT ?", PRODUCT, STREAM_PAGE_SIZE)
+                : shard.query(SELECT + "WHERE id > ? ORDER BY id LIMIT ?", PRODUCT, after, STREAM_PAGE_SIZE);
+    }
+
+    private <T> List<T> fanOut(Function<JdbcTemplate, List<T>> query) {
+        List<CompletableFuture<List<T>>> queries = new ArrayList<>(shards.size());
+        for (JdbcTemplate shard : shards) {
+            queries.add(CompletableFuture.supplyAsync(() -> query.apply(shard), executor));
+        }
+        return joinAll(queries);
+    }
+
+    private static <T> List<T> joinAll(List<CompletableFuture<List<T>>> queries) {
+        List<T> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> query : queries) {
+                results.addAll(query.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private JdbcTemplate shardOf(UUID id) {
+        return shards.get(router.shardOf(id));
+    }
+
+    // what Spring Data binds for a ...Containing query
+    private static String containing(String value) {
+        return "%" + value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    private static UnsupportedOperationException filterNotAvailable() {
+        return new UnsupportedOperationException("Filtering is not available on sharded storage");
+    }
+
+    @Value
+    static class Summary implements ProductSummary {
+        UUID id;
+        String isbn13;
+        String title;
+        float price;
+        int stock;
+        int reserved;
+        String coverUrl;
+    }
+
+}
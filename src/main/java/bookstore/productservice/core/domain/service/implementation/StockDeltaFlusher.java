@@ -0,0 +1,39 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes the stock deltas of {@link StockWriteBehind} to the database, all products in one statement per run.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "productservice.stock-write-behind.enabled", havingValue = "true")
+public class StockDeltaFlusher {
+
+    @Autowired
+    @Setter
+    private ProductService productService;
+
+    @Scheduled(fixedDelayString = "${productservice.stock-write-behind.flush-interval-millis:200}")
+    public void flush() {
+        try {
+            productService.flushStockDeltas();
+        } catch (RuntimeException e) {
+            // the deltas are back in memory and still in the journal, the next run writes them
+            log.warn("Writing stock deltas failed", e);
+        }
+    }
+
+    // what is left is in the journal anyway, writing it now just saves the replay
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+}
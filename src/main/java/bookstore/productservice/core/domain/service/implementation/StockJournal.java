@@ -0,0 +1,214 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjIntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the stock deltas taken in write-behind mode, the durable half of {@link StockWriteBehind}.
+ * Records go to numbered segment files. Appends are made durable together: the first appender to sync
+ * forces everything written so far, the ones queued behind it find their record already on disk.
+ * A segment is deleted once its deltas are in the database.
+ */
+class StockJournal implements Closeable {
+
+    // product id, delta and a checksum that tells a torn last record from a complete one
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("stock-(\\d{20})\\.journal");
+
+    private final Path directory;
+
+    // guards the buffer and the open segment
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // held while forcing, whoever holds it syncs for every appender waiting behind it
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel channel;
+    private long segment;
+    private long appended;
+    private volatile long synced;
+
+    StockJournal(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        List<Long> existing = segments();
+        this.segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        this.channel = open(segment);
+    }
+
+    /**
+     * Buffers the record and returns its sequence number, it is durable after {@link #sync(long)} with that number.
+     */
+    long append(UUID id, int delta) throws IOException {
+        appendLock.lock();
+        try {
+            if (buffer.remaining() < RECORD_SIZE) {
+                writeBuffer();
+            }
+            buffer.putLong(id.getMostSignificantBits())
+                    .putLong(id.getLeastSignificantBits())
+                    .putInt(delta)
+                    .putInt(checksum(id, delta));
+            return ++appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    void sync(long sequence) throws IOException {
+        if (synced >= sequence) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (synced >= sequence) {
+                return;
+            }
+            long target;
+            appendLock.lock();
+            try {
+                writeBuffer();
+                target = appended;
+            } finally {
+                appendLock.unlock();
+            }
+            // appends go on while forcing, they are picked up by the next sync
+            channel.force(false);
+            synced = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // number of the segment appends go to
+    long segment() {
+        appendLock.lock();
+        try {
+            return segment;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the current segment and starts the next one, returns the number of the closed segment.
+     */
+    long rotate() throws IOException {
+        syncLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                writeBuffer();
+                channel.force(false);
+                channel.close();
+                synced = appended;
+                long closed = segment;
+                segment++;
+                channel = open(segment);
+                return closed;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Reads every record of the closed segments after the given one. A record torn by a crash ends its segment.
+     */
+    void replay(long afterSegment, ObjIntConsumer<UUID> consumer) throws IOException {
+        for (long number : segments()) {
+            if (number <= afterSegment || number >= segment) {
+                continue;
+            }
+            ByteBuffer segmentBuffer = ByteBuffer.wrap(Files.readAllBytes(path(number)));
+            while (segmentBuffer.remaining() >= RECORD_SIZE) {
+                UUID id = new UUID(segmentBuffer.getLong(), segmentBuffer.getLong());
+                int delta = segmentBuffer.getInt();
+                if (segmentBuffer.getInt() != checksum(id, delta)) {
+                    break;
+                }
+                consumer.accept(id, delta);
+            }
+        }
+    }
+
+    void deleteUpTo(long lastSegment) throws IOException {
+        for (long number : segments()) {
+            if (number <= lastSegment && number != segment) {
+                Files.deleteIfExists(path(number));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncLock.lock();
+        appendLock.lock();
+        try {
+            writeBuffer();
+            channel.force(false);
+            channel.close();
+        } finally {
+            appendLock.unlock();
+            syncLock.unlock();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private FileChannel open(long number) throws IOException {
+        return FileChannel.open(path(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path path(long number) {
+        return directory.resolve(String.format("stock-%020d.journal", number));
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static int checksum(UUID id, int delta) {
+        CRC32 crc = new CRC32();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE - 4)
+                .putLong(id.getMostSignificantBits())
+                .putLong(id.getLeastSignificantBits())
+                .putInt(delta);
+        crc.update(record.array());
+        return (int) crc.getValue();
+    }
+
+}
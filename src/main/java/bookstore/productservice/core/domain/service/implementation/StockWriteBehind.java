@@ -0,0 +1,290 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind mode of POST stock/{id}/{quantity}: a stock increase is appended to the local
+ * {@link StockJournal}, acknowledged once the journal is on disk and added to an in-memory counter.
+ * The counters are written to the database in batches by {@link StockDeltaFlusher}.
+ * <p>
+ * Every flush closes a journal segment and stores its number in the same transaction as the stock
+ * update, so after a crash exactly the segments that did not make it into the database are replayed.
+ * A stock decrease that needs the pending units of a product flushes only that product, in the transaction of the decrease.
+ * The segments stay open for the other products, so the delta it wrote is stored instead and not replayed.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "productservice.stock-write-behind.enabled", havingValue = "true")
+public class StockWriteBehind {
+
+    private static final String JOURNAL_ID_FILE = "journal.id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StockJournal journal;
+    // tells the checkpoints of several instances apart
+    private final String journalId;
+
+    private final Map<UUID, LongAdder> pending = new ConcurrentHashMap<>();
+    // deltas handed to flushes that have not committed yet, still part of the stock a read sees
+    private final Map<UUID, Integer> inFlight = new ConcurrentHashMap<>();
+    // the flush of all products that has not committed yet, only one runs at a time
+    private volatile Running running;
+    // adds share it, a drain takes it alone so it sees every delta of the segments it closes
+    private final ReadWriteLock drainLock = new ReentrantReadWriteLock();
+    private volatile boolean replayed;
+
+    public StockWriteBehind(JdbcTemplate jdbcTemplate,
+                            @Value("${productservice.stock-write-behind.journal-directory:data/stock-journal}") Path directory)
+            throws IOException {
+        this.jdbcTemplate = jdbcTemplate;
+        this.journal = new StockJournal(directory);
+        this.journalId = journalId(directory);
+    }
+
+    /**
+     * Deltas of segments that were not flushed before the last shutdown count again. Until then
+     * nothing is flushed, a flush would mark the unread segments as written.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() throws IOException {
+        List<Long> checkpoint = jdbcTemplate.queryForList(
+                "SELECT segment FROM stock_journal_checkpoints WHERE journal_id = ?", Long.class, journalId);
+        long flushedSegment = checkpoint.isEmpty() ? 0 : checkpoint.get(0);
+        journal.deleteUpTo(flushedSegment);
+        journal.replay(flushedSegment, (id, delta) -> pending.computeIfAbsent(id, key -> new LongAdder()).add(delta));
+        // written by flushes of a single product, their records are in the segments just read
+        jdbcTemplate.query("SELECT product_id, delta FROM stock_journal_flushed_deltas WHERE journal_id = ? AND segment > ?",
+                row -> {
+                    pending.computeIfAbsent(row.getObject("product_id", UUID.class), key -> new LongAdder())
+                            .add(-row.getInt("delta"));
+                }, journalId, flushedSegment);
+        replayed = true;
+        log.info("Replayed stock journal {} after segment {}, {} products have pending stock", journalId, flushedSegment, pending.size());
+    }
+
+    /**
+     * Returns once the delta is durable in the journal.
+     */
+    public void add(UUID id, int quantity) {
+        long sequence;
+        drainLock.readLock().lock();
+        try {
+            sequence = journal.append(id, quantity);
+            pending.computeIfAbsent(id, key -> new LongAdder()).add(quantity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            drainLock.readLock().unlock();
+        }
+        try {
+            journal.sync(sequence);
+        } catch (IOException e) {
+            withdraw(id, quantity);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // takes back a delta the caller is told failed, also if a drain has taken it in the meantime
+    private void withdraw(UUID id, int quantity) {
+        drainLock.readLock().lock();
+        try {
+            pending.computeIfAbsent(id, key -> new LongAdder()).add(-quantity);
+            // should the record reach the disk after all, the replay cancels it out
+            journal.append(id, -quantity);
+        } catch (IOException e) {
+            log.warn("Could not journal the withdrawal of {} units of product {}", quantity, id, e);
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    // stock added to the product that is not in the database yet
+    public long pending(UUID id) {
+        LongAdder adder = pending.get(id);
+        return (adder == null ? 0 : adder.sum()) + inFlight.getOrDefault(id, 0);
+    }
+
+    /**
+     * Takes all pending deltas for a flush, or returns null if there is nothing to flush or a flush is running.
+     */
+    public Drain drain() {
+        drainLock.writeLock().lock();
+        try {
+            if (!replayed || running != null) {
+                return null;
+            }
+            Map<UUID, Integer> deltas = new HashMap<>();
+            pending.forEach((id, adder) -> {
+                long delta = adder.sum();
+                if (delta != 0) {
+                    deltas.put(id, Math.toIntExact(delta));
+                }
+            });
+            // nobody adds while the lock is held, so this drops nothing but the counters themselves
+            pending.clear();
+            if (deltas.isEmpty()) {
+                return null;
+            }
+            long segment = journal.rotate();
+            deltas.forEach(this::hold);
+            running = new Running(deltas.keySet(), new CountDownLatch(1));
+            return new Drain(deltas, segment, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            drainLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the pending delta of one product for a flush, or returns null if it has none.
+     * Units a running flush has taken are not part of it, see {@link #awaitFlush}.
+     */
+    public Drain drain(UUID id) {
+        drainLock.writeLock().lock();
+        try {
+            if (!replayed) {
+                return null;
+            }
+            LongAdder adder = pending.remove(id);
+            int delta = adder == null ? 0 : Math.toIntExact(adder.sum());
+            if (delta == 0) {
+                return null;
+            }
+            hold(id, delta);
+            // its records may be in any segment after the last checkpoint, up to the open one
+            return new Drain(Map.of(id, delta), journal.segment(), false);
+        } finally {
+            drainLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits at most the given time for a running flush that has taken units of the product to commit or roll back.
+     */
+    public void awaitFlush(UUID id, Duration timeout) {
+        Running flush = running;
+        if (flush == null || !flush.ids().contains(id)) {
+            return;
+        }
+        try {
+            if (!flush.done().await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Stock deltas of product {} were still being written after {}", id, timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records in the flush transaction that the drained segments are in the database, or for the flush
+     * of a single product the delta it wrote.
+     */
+    public void checkpoint(Drain drain) {
+        if (!drain.complete()) {
+            drain.deltas().forEach((id, delta) -> jdbcTemplate.update(
+                    "INSERT INTO stock_journal_flushed_deltas (journal_id, segment, product_id, delta) VALUES (?, ?, ?, ?) " +
+                            "ON CONFLICT (journal_id, segment, product_id) " +
+                            "DO UPDATE SET delta = stock_journal_flushed_deltas.delta + EXCLUDED.delta",
+                    journalId, drain.segment(), id, delta));
+            return;
+        }
+        jdbcTemplate.update("INSERT INTO stock_journal_checkpoints (journal_id, segment) VALUES (?, ?) " +
+                "ON CONFLICT (journal_id) DO UPDATE SET segment = EXCLUDED.segment", journalId, drain.segment());
+        // their records are in the segments that are not replayed any more
+        jdbcTemplate.update("DELETE FROM stock_journal_flushed_deltas WHERE journal_id = ? AND segment <= ?",
+                journalId, drain.segment());
+    }
+
+    // after the flush committed
+    public void flushed(Drain drain) {
+        release(drain);
+        if (!drain.complete()) {
+            return;
+        }
+        try {
+            journal.deleteUpTo(drain.segment());
+        } catch (IOException e) {
+            // the checkpoint already keeps them from being replayed
+            log.warn("Could not delete flushed stock journal segments", e);
+        }
+    }
+
+    // after the flush was rolled back, the deltas are flushed again with the next batch
+    public void restore(Drain drain) {
+        drainLock.readLock().lock();
+        try {
+            drain.deltas().forEach((id, delta) -> pending.computeIfAbsent(id, key -> new LongAdder()).add(delta));
+            release(drain);
+        } finally {
+            drainLock.readLock().unlock();
+        }
+    }
+
+    private void hold(UUID id, int delta) {
+        inFlight.merge(id, delta, Integer::sum);
+    }
+
+    private void release(Drain drain) {
+        drain.deltas().forEach((id, delta) -> inFlight.compute(id, (key, held) -> {
+            int rest = (held == null ? 0 : held) - delta;
+            return rest == 0 ? null : rest;
+        }));
+        if (drain.complete()) {
+            Running flush = running;
+            running = null;
+            flush.done().countDown();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private static String journalId(Path directory) throws IOException {
+        Path file = directory.resolve(JOURNAL_ID_FILE);
+        if (Files.exists(file)) {
+            return Files.readString(file, StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        Files.writeString(file, id, StandardCharsets.UTF_8);
+        return id;
+    }
+
+    /**
+     * Deltas taken for a flush. A complete drain holds every product and closed the segments up to
+     * {@code segment}, the drain of a single product leaves them open.
+     */
+    public record Drain(Map<UUID, Integer> deltas, long segment, boolean complete) {
+    }
+
+    private record Running(Set<UUID> ids, CountDownLatch done) {
+    }
+
+}
@@ -0,0 +1,25 @@
+package bookstore.productservice.core.domain.service.interfaces;
+
+import bookstore.productservice.core.domain.model.OutboxEvent;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface IOutboxRepository extends CrudRepository<OutboxEvent, Long> {
+
+    // rows locked by another instance are skipped, so several relays never publish the same event twice;
+    // ids are taken at insert, not at commit, so this is not the order the events happened in
+    @Query(value = "SELECT * FROM product_outbox ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OutboxEvent> lockOldest(@Param("limit") int limit);
+
+    @Modifying
+    @Query("delete from OutboxEvent e where e.id in :ids")
+    void deleteByIds(@Param("ids") Collection<Long> ids);
+
+}
@@ -1,20 +1,88 @@
 package bookstore.productservice.core.domain.service.interfaces;
 
 import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.StockLevel;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
-public interface IProductRepository extends CrudRepository<Product, UUID> {
+import static org.hibernate.jpa.HibernateHints.*;
+
+public interface IProductRepository extends CrudRepository<Product, UUID>, JpaSpecificationExecutor<Product>,
+        ProductUpsertRepository, ProductFacetRepository, ProductStockRepository {
 
     List<Product> findByTitle(String title);
 
     Product findByIsbn13(String isbn13);
 
+    @Query("select p.isbn13 from Product p where p.isbn13 in :isbns")
+    Set<String> findExistingIsbn13s(@Param("isbns") Collection<String> isbns);
+
     List<Product> findAll();
 
+    List<Product> findAllByOrderByIdAsc(Pageable pageable);
+
+    List<Product> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable);
+
+    // dynamic projections, an interface type only selects the columns it declares
+    <T> List<T> findAllByOrderByIdAsc(Pageable pageable, Class<T> type);
+
+    <T> List<T> findByIdGreaterThanOrderByIdAsc(UUID id, Pageable pageable, Class<T> type);
+
+    // server side cursor, has to be consumed (and closed) inside a read-only transaction
+    @QueryHints({
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HINT_CACHEABLE, value = "false")
+    })
+    @Query("select p from Product p")
+    Stream<Product> streamAll();
+
+    // what the stock statements return, the aliases are the properties of StockLevel
+    String STOCK_LEVEL = "stock - reserved AS available, reserved, row_version AS \"rowVersion\"";
+
+    // single statement read-modify-write, returns the new available stock or null if there is no such product
+    @Transactional
+    @Query(value = "UPDATE products SET stock = stock + :quantity, row_version = row_version + 1 " +
+            "WHERE id = :id RETURNING " + STOCK_LEVEL, nativeQuery = true)
+    StockLevel addStock(@Param("id") UUID id, @Param("quantity") int quantity);
+
+    // returns the available stock, or null if there is no such product or the stock would fall below what is reserved
+    @Transactional
+    @Query(value = "UPDATE products SET stock = stock - :quantity, row_version = row_version + 1 " +
+            "WHERE id = :id AND stock - reserved >= :quantity RETURNING " + STOCK_LEVEL, nativeQuery = true)
+    StockLevel removeStock(@Param("id") UUID id, @Param("quantity") int quantity);
+
+    // holds units of the available stock, returns the remaining available stock or null if there is not enough
+    @Transactional
+    @Query(value = "UPDATE products SET reserved = reserved + :quantity, row_version = row_version + 1 " +
+            "WHERE id = :id AND stock - reserved >= :quantity RETURNING " + STOCK_LEVEL, nativeQuery = true)
+    StockLevel reserveStock(@Param("id") UUID id, @Param("quantity") int quantity);
+
+    // turns held units into a sale, returns the available stock
+    @Transactional
+    @Query(value = "UPDATE products SET stock = stock - :quantity, reserved = reserved - :quantity, " +
+            "row_version = row_version + 1 WHERE id = :id RETURNING " + STOCK_LEVEL, nativeQuery = true)
+    StockLevel commitReservedStock(@Param("id") UUID id, @Param("quantity") int quantity);
+
+    // gives held units back, returns the available stock
+    @Transactional
+    @Query(value = "UPDATE products SET reserved = reserved - :quantity, row_version = row_version + 1 " +
+            "WHERE id = :id RETURNING " + STOCK_LEVEL, nativeQuery = true)
+    StockLevel releaseReservedStock(@Param("id") UUID id, @Param("quantity") int quantity);
+
     List<Product> findByTitleContainingIgnoreCase(String title);
 
     List<Product> findByIsbn13ContainingIgnoreCase(String isbn13);
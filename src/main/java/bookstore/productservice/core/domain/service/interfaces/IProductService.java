@@ -1,33 +1,89 @@
 package bookstore.productservice.core.domain.service.interfaces;
 
 import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductFilter;
+import bookstore.productservice.core.domain.model.ProductFilterResult;
+import bookstore.productservice.core.domain.model.ProductImportResult;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+import bookstore.productservice.core.domain.model.ProductSummary;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.model.StockReservation;
 import bookstore.productservice.port.product.exception.EmptySearchResultException;
+import bookstore.productservice.port.product.exception.FilterNotAvailableException;
+import bookstore.productservice.port.product.exception.InsufficientStockException;
+import bookstore.productservice.port.product.exception.InvalidFilterException;
+import bookstore.productservice.port.product.exception.InvalidPatchException;
+import bookstore.productservice.port.product.exception.InvalidProductException;
+import bookstore.productservice.port.product.exception.InvalidQuantityException;
+import bookstore.productservice.port.product.exception.InvalidReservationException;
 import bookstore.productservice.port.product.exception.ProductAlreadyExistsException;
+import bookstore.productservice.port.product.exception.ProductModifiedException;
 import bookstore.productservice.port.product.exception.ProductNotFoundException;
+import bookstore.productservice.port.product.exception.ReservationNotFoundException;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Service
 public interface IProductService {
 
     public Product createProduct(Product product) throws ProductAlreadyExistsException;
 
+    public List<ProductImportResult> importProducts(Iterator<Product> products);
+
+    public ProductUpsertResult upsertProduct(String isbn13, Product product) throws InvalidProductException;
+
     public Product getProduct(UUID id);
 
     public List<Product> getProducts();
 
-    public void updateProduct(Product product);
+    public List<Product> getProducts(UUID after, int limit);
+
+    public List<ProductSummary> getProductSummaries(UUID after, int limit);
+
+    public List<Product> getProducts(Collection<UUID> ids);
+
+    public void exportProducts(Consumer<Product> consumer);
+
+    public void updateProduct(Product product) throws ProductModifiedException;
+
+    public Product patchProduct(UUID id, JsonNode patch, Long expectedRowVersion) throws ProductNotFoundException,
+            ProductModifiedException, ProductAlreadyExistsException, InvalidPatchException;
 
     public void removeProduct(UUID id);
 
-    public void addStock(UUID id, int quantity) throws ProductNotFoundException;
+    public int addStock(UUID id, int quantity) throws ProductNotFoundException, InsufficientStockException, InvalidQuantityException;
+
+    public int removeStock(UUID id, int quantity) throws ProductNotFoundException, InsufficientStockException, InvalidQuantityException;
+
+    public StockReservation reserveStock(UUID productId, String cartId, int quantity, Duration ttl)
+            throws ProductNotFoundException, InsufficientStockException, InvalidReservationException;
+
+    public int confirmReservation(UUID reservationId) throws ReservationNotFoundException, ProductNotFoundException;
+
+    public void releaseReservation(UUID reservationId) throws ReservationNotFoundException;
 
     public int getStock(UUID id) throws ProductNotFoundException;
 
+    public Map<UUID, Integer> getStocks(Collection<UUID> ids);
+
     public List<Product> searchProduct(String query) throws EmptySearchResultException;
 
+    public List<Product> searchProduct(String query, int limit) throws EmptySearchResultException;
+
+    public List<ProductSuggestion> suggestProducts(String prefix, int limit);
+
+    public ProductFilterResult filterProducts(ProductFilter filter, Pageable pageable)
+            throws InvalidFilterException, FilterNotAvailableException;
+
 
 
 }
@@ -0,0 +1,32 @@
+package bookstore.productservice.core.domain.service.interfaces;
+
+import bookstore.productservice.core.domain.model.StockReservation;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface IStockReservationRepository extends CrudRepository<StockReservation, UUID> {
+
+    // confirm and release lock the hold first, so a hold is settled exactly once, by them or by the sweeper
+    @Query(value = "SELECT * FROM stock_reservations WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<StockReservation> lockById(@Param("id") UUID id);
+
+    // holds being confirmed or released right now are skipped, as are the ones another sweeper took
+    @Query(value = "SELECT * FROM stock_reservations WHERE expires_at < :now ORDER BY expires_at " +
+            "LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<StockReservation> lockExpired(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("delete from StockReservation r where r.id in :ids")
+    void deleteByIds(@Param("ids") Collection<UUID> ids);
+
+}
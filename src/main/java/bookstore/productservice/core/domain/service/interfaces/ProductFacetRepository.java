@@ -0,0 +1,16 @@
+package bookstore.productservice.core.domain.service.interfaces;
+
+import bookstore.productservice.core.domain.model.Product;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.Map;
+
+public interface ProductFacetRepository {
+
+    // value of the attribute -> products matching the specification with that value, most frequent first
+    Map<String, Long> countByAttribute(Specification<Product> specification, String attribute, int limit);
+
+    // "true" -> products in stock, "false" -> products out of stock
+    Map<String, Long> countByStock(Specification<Product> specification);
+
+}
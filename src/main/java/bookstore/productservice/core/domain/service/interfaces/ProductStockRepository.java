@@ -0,0 +1,13 @@
+package bookstore.productservice.core.domain.service.interfaces;
+
+import bookstore.productservice.core.domain.model.StockLevel;
+
+import java.util.Map;
+import java.util.UUID;
+
+public interface ProductStockRepository {
+
+    // adds every delta to the stock of its product in one statement, returns the new stock of the products that exist
+    Map<UUID, StockLevel> addStocks(Map<UUID, Integer> deltas);
+
+}
@@ -0,0 +1,17 @@
+package bookstore.productservice.core.domain.service.interfaces;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+
+/**
+ * Repository fragment of {@link IProductRepository} for writes Spring Data cannot derive.
+ */
+public interface ProductUpsertRepository {
+
+    /**
+     * Inserts the product or updates the product with the same isbn13 in one statement.
+     * The stock of an existing product is kept, and a product that would not change is not written.
+     */
+    ProductUpsertResult upsertByIsbn13(Product product);
+
+}
@@ -0,0 +1,19 @@
+package bookstore.productservice.port.product;
+
+import lombok.*;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CacheInvalidationMessage {
+
+    private String origin;
+    private UUID productId;
+    private String isbn13;
+    // catalog version of the write, null from a writer that could not take one
+    private Long catalogVersion;
+
+}
@@ -1,21 +1,64 @@
 package bookstore.productservice.port.product;
 
+import bookstore.authentication.JwtUtil;
 import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductFilter;
+import bookstore.productservice.core.domain.model.ProductImportResult;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+import bookstore.productservice.core.domain.model.ProductSummary;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.model.StockReservation;
+import bookstore.productservice.core.domain.service.implementation.CatalogVersion;
+import bookstore.productservice.core.domain.service.implementation.ProductCache;
+import bookstore.productservice.core.domain.service.implementation.ProductMetrics;
 import bookstore.productservice.core.domain.service.implementation.ProductService;
+import bookstore.productservice.port.product.dto.ProductBatch;
+import bookstore.productservice.port.product.dto.ProductPage;
 import bookstore.productservice.port.product.dto.SearchRequest;
 import bookstore.productservice.port.product.exception.EmptySearchResultException;
+import bookstore.productservice.port.product.exception.FilterNotAvailableException;
+import bookstore.productservice.port.product.exception.InsufficientStockException;
+import bookstore.productservice.port.product.exception.InvalidBatchException;
+import bookstore.productservice.port.product.exception.InvalidFilterException;
+import bookstore.productservice.port.product.exception.InvalidPatchException;
+import bookstore.productservice.port.product.exception.InvalidProductException;
+import bookstore.productservice.port.product.exception.InvalidQuantityException;
+import bookstore.productservice.port.product.exception.InvalidReservationException;
 import bookstore.productservice.port.product.exception.NoProductsException;
 import bookstore.productservice.port.product.exception.ProductAlreadyExistsException;
+import bookstore.productservice.port.product.exception.ProductModifiedException;
 import bookstore.productservice.port.product.exception.ProductNotFoundException;
+import bookstore.productservice.port.product.exception.ReservationNotFoundException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
-import java.util.UUID;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
@@ -23,32 +66,154 @@ import java.util.UUID;
 @RequiredArgsConstructor
 public class ProductController {
 
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int DEFAULT_SUGGESTIONS = 10;
+    private static final int MAX_SUGGESTIONS = 50;
+    private static final Set<String> SORTABLE_FIELDS = Set.of("price", "publishingDate");
+    private static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    private static final String APPLICATION_MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+
     @Autowired
     private RabbitTemplate rabbitTemplate;
 
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private ProductCache productCache;
+
+    @Autowired
+    private CatalogVersion catalogVersion;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private ProductMetrics metrics;
+
+    @Value("${productservice.http.max-age:30s}")
+    private Duration maxAge;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping("products")
-    public ResponseEntity<List<Product>> getProducts(HttpServletRequest request) throws Exception {
-        List<Product> products = productService.getProducts();
+    public ResponseEntity<MappingJacksonValue> getProducts(@RequestParam(name = "after", required = false) UUID after,
+                                                           @RequestParam(name = "limit", defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                                                           @RequestParam(name = "fields", required = false) String fields,
+                                                           WebRequest request) throws Exception {
+        String etag = catalogEtag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
 
-        if (products == null || products.size() == 0) {
+        limit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        SparseFieldset fieldset = SparseFieldset.parse(fields);
+
+        // fetch one extra row to find out whether there is a next page
+        ProductPage<?> page = fieldset.isCoveredBy(ProductSummary.FIELDS)
+                ? page(productService.getProductSummaries(after, limit + 1), limit, ProductSummary::getId)
+                : page(productService.getProducts(after, limit + 1), limit, Product::getId);
+
+        if (after == null && page.getProducts().isEmpty()) {
             throw new NoProductsException();
         }
 
-        return ResponseEntity.ok(products);
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl())
+                .body(fieldset.apply(page));
+    }
+
+    private static <T> ProductPage<T> page(List<T> products, int limit, Function<T, UUID> id) {
+        if (products == null) {
+            return new ProductPage<>(List.of(), null);
+        }
+        UUID nextCursor = null;
+        if (products.size() > limit) {
+            products = products.subList(0, limit);
+            nextCursor = id.apply(products.get(limit - 1));
+        }
+        return new ProductPage<>(products, nextCursor);
+    }
+
+    @GetMapping(path = "products/export", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportProducts() {
+        StreamingResponseBody body = outputStream -> {
+            AtomicBoolean written = new AtomicBoolean();
+            // one product per line, flushed by the servlet buffer instead of after every product
+            try (SequenceWriter writer = objectMapper.writerFor(Product.class)
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .withRootValueSeparator("\n")
+                    .writeValues(outputStream)) {
+                productService.exportProducts(product -> {
+                    try {
+                        writer.write(product);
+                        written.set(true);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            if (written.get()) {
+                outputStream.write('\n');
+            }
+            outputStream.flush();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(body);
     }
 
     @GetMapping("products/{id}")
-    public Product getProduct(@PathVariable UUID id) throws ProductNotFoundException {
+    public ResponseEntity<Product> getProduct(@PathVariable UUID id, WebRequest request) throws ProductNotFoundException {
+        // served from the product cache, so a 304 usually costs neither a query nor serialization
         Product product = productService.getProduct(id);
 
         if (product == null) {
+            metrics.productNotFound();
             throw new ProductNotFoundException();
         }
 
-        return product;
+        String etag = "\"" + product.getRowVersion() + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl())
+                .body(product);
+    }
+
+    // a read, but POST because the id list does not fit into a url; open to anyone, so the list is bounded
+    @PostMapping("products/batch")
+    public MappingJacksonValue getProducts(@RequestBody List<UUID> ids,
+                                           @RequestParam(name = "fields", required = false) String fields)
+            throws InvalidBatchException {
+        if (ids.size() > MAX_PAGE_SIZE) {
+            throw new InvalidBatchException("At most " + MAX_PAGE_SIZE + " ids can be requested at once.");
+        }
+        if (ids.contains(null)) {
+            throw new InvalidBatchException("ids must not contain null.");
+        }
+        List<Product> products = productService.getProducts(ids);
+
+        Set<UUID> found = new HashSet<>();
+        for (Product product : products) {
+            found.add(product.getId());
+        }
+        List<UUID> missing = new ArrayList<>();
+        for (UUID id : new LinkedHashSet<>(ids)) {
+            if (!found.contains(id)) {
+                missing.add(id);
+            }
+        }
+
+        return SparseFieldset.parse(fields).apply(new ProductBatch(products, missing));
     }
 
     @PostMapping("products")
@@ -56,19 +221,87 @@ public class ProductController {
         return productService.createProduct(product);
     }
 
+    // accepts a JSON array or one product per line, rows are read one by one from the request body
+    @PostMapping(path = "products/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public List<ProductImportResult> importProducts(HttpServletRequest request) throws IOException {
+        try (MappingIterator<Product> products = objectMapper.readerFor(Product.class)
+                .readValues(request.getInputStream())) {
+            return productService.importProducts(products);
+        }
+    }
+
+    // idempotent create-or-update for feeds that resend the same books, 201 only when the product is new
+    @PutMapping("products/isbn/{isbn13}")
+    public ResponseEntity<ProductUpsertResult> upsertProduct(@PathVariable String isbn13, @RequestBody Product product)
+            throws InvalidProductException {
+        ProductUpsertResult result = productService.upsertProduct(isbn13, product);
+        return ResponseEntity.status(result.getStatus() == ProductUpsertResult.Status.CREATED ? HttpStatus.CREATED : HttpStatus.OK)
+                .eTag("\"" + result.getProduct().getRowVersion() + "\"")
+                .body(result);
+    }
+
     @DeleteMapping("products/{id}")
     public void delete (@PathVariable UUID id) {
         productService.removeProduct(id);
     }
 
     @PutMapping(path="products")
-    public void update (@RequestBody Product product) {
+    public void update (@RequestBody Product product) throws ProductModifiedException {
         productService.updateProduct(product);
     }
 
+    // JSON merge patch, e.g. {"price": 9.99}; with If-Match the patch only applies to that version
+    @PatchMapping(path = "products/{id}", consumes = {APPLICATION_MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Product> patch(@PathVariable UUID id, @RequestBody JsonNode patch,
+                                         @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+            throws ProductNotFoundException, ProductModifiedException, ProductAlreadyExistsException, InvalidPatchException {
+        Long expectedRowVersion = null;
+        if (ifMatch != null && !ifMatch.equals("*")) {
+            try {
+                expectedRowVersion = Long.parseLong(ifMatch.replace("W/", "").replace("\"", "").trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidPatchException("If-Match has to be an ETag of this product.");
+            }
+        }
+
+        Product product = productService.patchProduct(id, patch, expectedRowVersion);
+        return ResponseEntity.ok()
+                .eTag("\"" + product.getRowVersion() + "\"")
+                .body(product);
+    }
+
     @PostMapping("stock/{id}/{quantity}")
-    public void addStock(@PathVariable(name = "id") UUID id, @PathVariable(name = "quantity") int quantity) throws ProductNotFoundException {
-        productService.addStock(id, quantity);
+    public int addStock(@PathVariable(name = "id") UUID id, @PathVariable(name = "quantity") int quantity)
+            throws ProductNotFoundException, InsufficientStockException, InvalidQuantityException {
+        return productService.addStock(id, quantity);
+    }
+
+    @DeleteMapping("stock/{id}/{quantity}")
+    public int removeStock(@PathVariable(name = "id") UUID id, @PathVariable(name = "quantity") int quantity)
+            throws ProductNotFoundException, InsufficientStockException, InvalidQuantityException {
+        return productService.removeStock(id, quantity);
+    }
+
+    // holds stock for a cart between the stock check and the order, the hold ends after ttlSeconds
+    @PostMapping("reservations/{productId}/{quantity}")
+    public ResponseEntity<StockReservation> reserveStock(@PathVariable(name = "productId") UUID productId,
+                                                         @PathVariable(name = "quantity") int quantity,
+                                                         @RequestParam(name = "cartId") String cartId,
+                                                         @RequestParam(name = "ttlSeconds", required = false) Long ttlSeconds)
+            throws ProductNotFoundException, InsufficientStockException, InvalidReservationException {
+        Duration ttl = ttlSeconds == null ? null : Duration.ofSeconds(ttlSeconds);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(productService.reserveStock(productId, cartId, quantity, ttl));
+    }
+
+    @PostMapping("reservations/{id}/confirm")
+    public int confirmReservation(@PathVariable(name = "id") UUID id) throws ReservationNotFoundException, ProductNotFoundException {
+        return productService.confirmReservation(id);
+    }
+
+    @DeleteMapping("reservations/{id}")
+    public void releaseReservation(@PathVariable(name = "id") UUID id) throws ReservationNotFoundException {
+        productService.releaseReservation(id);
     }
 
     @GetMapping("stock/{id}")
@@ -76,28 +309,91 @@ public class ProductController {
         return productService.getStock(id);
     }
 
-    @GetMapping("products/search/{query}")
-    public List<Product> searchProduct(@PathVariable(name = "query") String query) throws EmptySearchResultException {
-        return productService.searchProduct(query);
+    @GetMapping("cache/stats")
+    public Map<String, Object> getCacheStats() {
+        return Map.of("products", productCache.stats(), "jwt", jwtUtil.stats());
     }
 
-    /*
-    @RabbitListener(queues =  "#{queue.name}", concurrency = "5")
-    public CustomReply checkStock(CustomMessage msg) {
-        UUID id = msg.getProductId();
-        int quantity = msg.getQuantity();
-        Product product = productService.getProduct(id);
+    @GetMapping("products/search/{query}")
+    public ResponseEntity<MappingJacksonValue> searchProduct(@PathVariable(name = "query") String query,
+                                                             @RequestParam(name = "limit", defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+                                                             @RequestParam(name = "fields", required = false) String fields,
+                                                             WebRequest request) throws EmptySearchResultException {
+        String etag = catalogEtag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
 
-        if (product == null) {
+        List<Product> products = productService.searchProduct(query, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl())
+                .body(SparseFieldset.parse(fields).apply(products));
+    }
+
+    @GetMapping("products/filter")
+    public ResponseEntity<MappingJacksonValue> filterProducts(@RequestParam(name = "language", required = false) String language,
+                                                              @RequestParam(name = "publishingHouse", required = false) String publishingHouse,
+                                                              @RequestParam(name = "author", required = false) String author,
+                                                              @RequestParam(name = "minPrice", required = false) Float minPrice,
+                                                              @RequestParam(name = "maxPrice", required = false) Float maxPrice,
+                                                              @RequestParam(name = "inStock", required = false) Boolean inStock,
+                                                              @RequestParam(name = "sort", required = false) String sort,
+                                                              @RequestParam(name = "page", defaultValue = "0") int page,
+                                                              @RequestParam(name = "size", defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+                                                              @RequestParam(name = "fields", required = false) String fields,
+                                                              WebRequest request) throws InvalidFilterException, FilterNotAvailableException {
+        String etag = catalogEtag();
+        if (request.checkNotModified(etag)) {
             return null;
         }
-        return CustomReply.builder()
-                .productId(id)
-                .quantity(quantity)
-                .inStock(quantity < product.getStock())
+
+        ProductFilter filter = ProductFilter.builder()
+                .language(language)
+                .publishingHouse(publishingHouse)
+                .author(author)
+                .minPrice(minPrice)
+                .maxPrice(maxPrice)
+                .inStock(inStock)
                 .build();
+        Pageable pageable = PageRequest.of(Math.max(0, page), Math.max(1, Math.min(size, MAX_PAGE_SIZE)), sortOf(sort));
+
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl())
+                .body(SparseFieldset.parse(fields).apply(productService.filterProducts(filter, pageable)));
     }
 
-     */
+    // "price" sorts ascending, "-price" descending; ties are broken by id so pages do not overlap
+    private static Sort sortOf(String sort) throws InvalidFilterException {
+        if (sort == null || sort.isBlank()) {
+            return Sort.by("id");
+        }
+        boolean descending = sort.startsWith("-");
+        String property = descending ? sort.substring(1) : sort;
+        if (!SORTABLE_FIELDS.contains(property)) {
+            throw new InvalidFilterException("Cannot sort by " + property + ", use one of " + SORTABLE_FIELDS);
+        }
+        return Sort.by(descending ? Sort.Direction.DESC : Sort.Direction.ASC, property).and(Sort.by("id"));
+    }
+
+    // type-ahead for the search box, called on every keystroke
+    @GetMapping("products/suggest")
+    public ResponseEntity<List<ProductSuggestion>> suggestProducts(@RequestParam(name = "prefix") String prefix,
+                                                                   @RequestParam(name = "limit", defaultValue = "" + DEFAULT_SUGGESTIONS) int limit) {
+        List<ProductSuggestion> suggestions = productService.suggestProducts(prefix, Math.max(1, Math.min(limit, MAX_SUGGESTIONS)));
+        return ResponseEntity.ok()
+                .cacheControl(cacheControl())
+                .body(suggestions);
+    }
+
+    // listings and search results change with any product, so they share the catalog version
+    private String catalogEtag() {
+        return "\"c" + catalogVersion.get() + "\"";
+    }
+
+    private CacheControl cacheControl() {
+        return CacheControl.maxAge(maxAge).cachePublic();
+    }
 
 }
@@ -0,0 +1,144 @@
+package bookstore.productservice.port.product;
+
+import bookstore.productservice.core.domain.model.OutboxEvent;
+import bookstore.productservice.core.domain.model.ProductEvent;
+import bookstore.productservice.core.domain.service.interfaces.IOutboxRepository;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes the outbox to the product event exchange. A batch of rows is locked, published and
+ * only deleted once the broker has confirmed every message, so events are delivered at least once;
+ * the message id is the outbox id for consumers to drop duplicates. Events of a product may still
+ * arrive out of order, consumers order them by the row version of the event, see {@link ProductEvent}.
+ * Stock changes of a product that are followed by another stock change in the same batch are
+ * dropped, only the latest stock is published.
+ */
+@Slf4j
+@Component
+public class ProductEventRelay {
+
+    @Autowired
+    @Setter
+    private IOutboxRepository outboxRepository;
+
+    @Autowired
+    @Setter
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    @Setter
+    private TopicExchange productEventExchange;
+
+    @Autowired
+    @Setter
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${productservice.outbox.batch-size:200}")
+    @Setter
+    private int batchSize;
+
+    @Value("${productservice.outbox.confirm-timeout:10s}")
+    @Setter
+    private Duration confirmTimeout;
+
+    @Scheduled(fixedDelayString = "${productservice.outbox.interval-millis:500}")
+    public void relay() {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        try {
+            Integer relayed;
+            do {
+                relayed = transaction.execute(status -> relayBatch());
+            } while (relayed != null && relayed == batchSize);
+        } catch (RuntimeException e) {
+            // the rows are still there and are picked up again on the next run
+            log.warn("Publishing product events failed", e);
+        }
+    }
+
+    private int relayBatch() {
+        List<OutboxEvent> events = outboxRepository.lockOldest(batchSize);
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        List<CorrelationData> confirmations = new ArrayList<>(events.size());
+        for (OutboxEvent event : coalesce(events)) {
+            CorrelationData correlation = new CorrelationData(event.getId().toString());
+            rabbitTemplate.send(productEventExchange.getName(), event.getType().routingKey, toMessage(event), correlation);
+            confirmations.add(correlation);
+        }
+        awaitConfirms(confirmations);
+
+        List<Long> ids = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            ids.add(event.getId());
+        }
+        outboxRepository.deleteByIds(ids);
+        return events.size();
+    }
+
+    static List<OutboxEvent> coalesce(List<OutboxEvent> events) {
+        Map<UUID, Long> latestStockChange = new HashMap<>();
+        for (OutboxEvent event : events) {
+            if (event.getType() == ProductEvent.Type.STOCK_CHANGED) {
+                latestStockChange.put(event.getProductId(), event.getId());
+            }
+        }
+        List<OutboxEvent> coalesced = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            if (event.getType() != ProductEvent.Type.STOCK_CHANGED
+                    || event.getId().equals(latestStockChange.get(event.getProductId()))) {
+                coalesced.add(event);
+            }
+        }
+        return coalesced;
+    }
+
+    private void awaitConfirms(List<CorrelationData> confirmations) {
+        long deadline = System.nanoTime() + confirmTimeout.toNanos();
+        for (CorrelationData correlation : confirmations) {
+            CorrelationData.Confirm confirm;
+            try {
+                confirm = correlation.getFuture().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for publisher confirms", e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("No publisher confirm for outbox event " + correlation.getId(), e);
+            }
+            if (!confirm.isAck()) {
+                throw new IllegalStateException("Outbox event " + correlation.getId() + " was rejected: " + confirm.getReason());
+            }
+        }
+    }
+
+    private static Message toMessage(OutboxEvent event) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+        properties.setMessageId(event.getId().toString());
+        properties.setType(event.getType().name());
+        properties.setTimestamp(Date.from(event.getCreatedAt()));
+        return new Message(event.getPayload().getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+}
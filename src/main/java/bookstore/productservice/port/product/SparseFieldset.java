@@ -0,0 +1,50 @@
+package bookstore.productservice.port.product;
+
+import bookstore.productservice.core.domain.model.Product;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import org.springframework.http.converter.json.MappingJacksonValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The product fields selected with ?fields=title,price,... ; no parameter selects every field.
+ */
+class SparseFieldset {
+
+    private final Set<String> fields;
+
+    private SparseFieldset(Set<String> fields) {
+        this.fields = fields;
+    }
+
+    static SparseFieldset parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return new SparseFieldset(Collections.emptySet());
+        }
+        return new SparseFieldset(Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toUnmodifiableSet()));
+    }
+
+    /**
+     * True if only some fields were asked for and all of them are in the given set.
+     */
+    boolean isCoveredBy(Set<String> available) {
+        return !fields.isEmpty() && available.containsAll(fields);
+    }
+
+    MappingJacksonValue apply(Object body) {
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        SimpleBeanPropertyFilter filter = fields.isEmpty()
+                ? SimpleBeanPropertyFilter.serializeAll()
+                : SimpleBeanPropertyFilter.filterOutAllExcept(fields);
+        value.setFilters(new SimpleFilterProvider().addFilter(Product.JSON_FILTER, filter));
+        return value;
+    }
+
+}
@@ -0,0 +1,144 @@
+package bookstore.productservice.port.product;
+
+import bookstore.productservice.core.domain.service.implementation.ProductService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Address;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers stock checks of the cart service.
+ * A request is either a single {@link CustomMessage}, answered with a single {@link CustomReply},
+ * or a JSON array of them for a whole cart, answered with a list of replies in the same order.
+ * Messages are consumed in batches and all products of a batch are loaded with one query.
+ * A line without a product and a request that cannot be read are answered as not in stock.
+ */
+@Slf4j
+@Component
+public class StockCheckListener {
+
+    @Autowired
+    @Setter
+    private ProductService productService;
+
+    @Autowired
+    @Setter
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    @Setter
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Setter
+    private MeterRegistry meterRegistry;
+
+    private Timer batchTimer;
+    private Timer lagTimer;
+
+    @PostConstruct
+    void registerMeters() {
+        batchTimer = Timer.builder("productservice.stockcheck.batch")
+                .description("Time to answer one batch of stock checks")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        // only measured for requests that carry a timestamp
+        lagTimer = Timer.builder("productservice.stockcheck.lag")
+                .description("Time a stock check waited in the queue")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @RabbitListener(queues = "#{queue.name}", containerFactory = "stockCheckContainerFactory")
+    public void checkStock(List<Message> messages) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        for (Message message : messages) {
+            Date timestamp = message.getMessageProperties().getTimestamp();
+            if (timestamp != null) {
+                lagTimer.record(Math.max(0, now - timestamp.getTime()), TimeUnit.MILLISECONDS);
+            }
+        }
+        try {
+            answer(messages);
+        } finally {
+            batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void answer(List<Message> messages) {
+        Map<Message, List<CustomMessage>> requests = new LinkedHashMap<>();
+        Set<Message> singleLineRequests = new HashSet<>();
+        List<Message> malformed = new ArrayList<>();
+        Set<UUID> ids = new HashSet<>();
+
+        for (Message message : messages) {
+            try {
+                JsonNode request = objectMapper.readTree(message.getBody());
+                List<CustomMessage> lines = request.isArray()
+                        ? Arrays.asList(objectMapper.convertValue(request, CustomMessage[].class))
+                        : List.of(objectMapper.convertValue(request, CustomMessage.class));
+                for (CustomMessage line : lines) {
+                    if (line.getProductId() != null) {
+                        ids.add(line.getProductId());
+                    }
+                }
+                if (!request.isArray()) {
+                    singleLineRequests.add(message);
+                }
+                requests.put(message, lines);
+            } catch (IOException | RuntimeException e) {
+                // a broken message must not send the whole batch back to the queue
+                log.warn("Rejecting malformed stock check request {}", message.getMessageProperties().getMessageId(), e);
+                malformed.add(message);
+            }
+        }
+
+        Map<UUID, Integer> stocks = productService.getStocks(ids);
+
+        requests.forEach((message, lines) -> {
+            List<CustomReply> replies = new ArrayList<>(lines.size());
+            for (CustomMessage line : lines) {
+                Integer stock = line.getProductId() == null ? null : stocks.get(line.getProductId());
+                replies.add(CustomReply.builder()
+                        .productId(line.getProductId())
+                        .quantity(line.getQuantity())
+                        .inStock(stock != null && line.getQuantity() <= stock)
+                        .build());
+            }
+            reply(message, singleLineRequests.contains(message) ? replies.get(0) : replies);
+        });
+        // the sender waits for its correlation id, whatever it asked
+        for (Message message : malformed) {
+            reply(message, CustomReply.builder().inStock(false).build());
+        }
+    }
+
+    private void reply(Message request, Object reply) {
+        MessageProperties requestProperties = request.getMessageProperties();
+        if (requestProperties.getReplyTo() == null) {
+            return;
+        }
+        MessageProperties replyProperties = new MessageProperties();
+        replyProperties.setCorrelationId(requestProperties.getCorrelationId());
+
+        Address replyTo = new Address(requestProperties.getReplyTo());
+        rabbitTemplate.send(replyTo.getExchangeName(), replyTo.getRoutingKey(),
+                rabbitTemplate.getMessageConverter().toMessage(reply, replyProperties));
+    }
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.FilterNotAvailableException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class FilterNotAvailableAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = FilterNotAvailableException.class)
+    @ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+    String filterNotAvailableHandler(FilterNotAvailableException exception){
+        return exception.getMessage();
+    }
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.InsufficientStockException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class InsufficientStockAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = InsufficientStockException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    String insufficientStockHandler(InsufficientStockException exception){
+        return exception.getMessage();
+    }
+
+}
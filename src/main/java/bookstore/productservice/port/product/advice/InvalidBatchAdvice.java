@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.InvalidBatchException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class InvalidBatchAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = InvalidBatchException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String invalidBatchHandler(InvalidBatchException exception){
+        return exception.getMessage();
+    }
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.InvalidFilterException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class InvalidFilterAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = InvalidFilterException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String invalidFilterHandler(InvalidFilterException exception){
+        return exception.getMessage();
+    }
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.InvalidPatchException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class InvalidPatchAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = InvalidPatchException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String invalidPatchHandler(InvalidPatchException exception){
+        return exception.getMessage();
+    }
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.InvalidProductException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class InvalidProductAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = InvalidProductException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    String invalidProductHandler(InvalidProductException exception){
+        return exception.getMessage();
+    }
+
+}
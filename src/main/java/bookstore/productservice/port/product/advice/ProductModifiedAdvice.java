@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.ProductModifiedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class ProductModifiedAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = ProductModifiedException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    String productModifiedHandler(ProductModifiedException exception){
+        return exception.getMessage();
+    }
+
+}
@@ -0,0 +1,20 @@
+package bookstore.productservice.port.product.advice;
+
+import bookstore.productservice.port.product.exception.ReservationNotFoundException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ControllerAdvice
+public class ReservationNotFoundAdvice {
+
+    @ResponseBody
+    @ExceptionHandler(value = ReservationNotFoundException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    String reservationNotFoundHandler(ReservationNotFoundException exception){
+        return exception.getMessage();
+    }
+
+}
@@ -0,0 +1,19 @@
+package bookstore.productservice.port.product.dto;
+
+import bookstore.productservice.core.domain.model.Product;
+import lombok.*;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductBatch {
+
+    private List<Product> products;
+    // requested ids without a product
+    private List<UUID> missing;
+
+}
@@ -0,0 +1,19 @@
+package bookstore.productservice.port.product.dto;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductPage<T> {
+
+    // full products or summaries, depending on the requested fields
+    private List<T> products;
+    // id of the last product on this page, pass it as ?after= to get the next page; null on the last page
+    private UUID nextCursor;
+
+}
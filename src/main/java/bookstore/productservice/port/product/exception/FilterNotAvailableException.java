@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class FilterNotAvailableException extends Exception {
+
+
+    public FilterNotAvailableException() {
+        super("Filtering is not available while the products are sharded.");
+    }
+}
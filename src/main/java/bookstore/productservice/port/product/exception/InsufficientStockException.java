@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InsufficientStockException extends Exception {
+
+
+    public InsufficientStockException() {
+        super("Not enough stock available.");
+    }
+}
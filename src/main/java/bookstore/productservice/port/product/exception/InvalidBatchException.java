@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InvalidBatchException extends Exception {
+
+
+    public InvalidBatchException(String message) {
+        super(message);
+    }
+}
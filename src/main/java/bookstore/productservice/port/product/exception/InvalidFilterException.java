@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InvalidFilterException extends Exception {
+
+
+    public InvalidFilterException(String message) {
+        super(message);
+    }
+}
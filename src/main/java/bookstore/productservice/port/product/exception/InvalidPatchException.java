@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InvalidPatchException extends Exception {
+
+
+    public InvalidPatchException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InvalidProductException extends Exception {
+
+
+    public InvalidProductException(String message) {
+        super(message);
+    }
+}
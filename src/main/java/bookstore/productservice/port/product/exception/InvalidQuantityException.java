@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InvalidQuantityException extends Exception {
+
+
+    public InvalidQuantityException(String message) {
+        super(message);
+    }
+}
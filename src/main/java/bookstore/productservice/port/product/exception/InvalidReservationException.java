@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class InvalidReservationException extends Exception {
+
+
+    public InvalidReservationException(String message) {
+        super(message);
+    }
+}
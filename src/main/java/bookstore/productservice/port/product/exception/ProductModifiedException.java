@@ -0,0 +1,9 @@
+package bookstore.productservice.port.product.exception;
+
+public class ProductModifiedException extends Exception {
+
+
+    public ProductModifiedException() {
+        super("Product was modified concurrently, reload it and try again.");
+    }
+}
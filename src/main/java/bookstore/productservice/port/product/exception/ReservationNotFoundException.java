@@ -0,0 +1,10 @@
+package bookstore.productservice.port.product.exception;
+
+public class ReservationNotFoundException extends Exception {
+
+    // confirmed, released or expired holds are gone, there is no way to tell them apart afterwards
+    public ReservationNotFoundException() {
+        super("There is no open reservation with the given id.");
+    }
+
+}
@@ -0,0 +1,2 @@
+-- advanced by every product change, backs the ETag of listings and search results, see CatalogVersion
+CREATE SEQUENCE IF NOT EXISTS catalog_version;
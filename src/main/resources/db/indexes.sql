@@ -0,0 +1,12 @@
+-- indexes for GET products/filter and the reservation sweeper, run on every start after Hibernate created the tables
+CREATE INDEX IF NOT EXISTS products_language_idx ON products (language);
+CREATE INDEX IF NOT EXISTS products_publishing_house_idx ON products (publishing_house);
+CREATE INDEX IF NOT EXISTS products_price_idx ON products (price);
+CREATE INDEX IF NOT EXISTS products_publishing_date_idx ON products (publishing_date);
+-- authors @> array[...], a b-tree cannot look into an array
+CREATE INDEX IF NOT EXISTS products_authors_idx ON products USING GIN (authors);
+-- inStock=true sorted or ranged by price, the most common listing of the shop; in stock is what is not reserved
+DROP INDEX IF EXISTS products_in_stock_price_idx;
+CREATE INDEX IF NOT EXISTS products_available_price_idx ON products (price) WHERE stock - reserved > 0;
+-- the sweeper looks for the oldest expired holds
+CREATE INDEX IF NOT EXISTS stock_reservations_expires_at_idx ON stock_reservations (expires_at);
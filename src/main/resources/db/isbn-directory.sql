@@ -0,0 +1,5 @@
+-- isbn13 -> product id of the sharded storage, kept in the primary database, see IsbnDirectory
+CREATE TABLE IF NOT EXISTS product_isbn_directory (
+    isbn13 varchar(255) PRIMARY KEY,
+    product_id uuid NOT NULL
+);
@@ -0,0 +1,18 @@
+-- products table of a shard, the same columns as the products table Hibernate creates in the primary database
+CREATE TABLE IF NOT EXISTS products (
+    id uuid PRIMARY KEY,
+    isbn13 varchar(255) NOT NULL UNIQUE,
+    title varchar(255) NOT NULL,
+    version varchar(255) NOT NULL,
+    authors varchar(255)[] NOT NULL,
+    publishing_date timestamp(6) NOT NULL,
+    publishing_house varchar(255) NOT NULL,
+    description varchar(255) NOT NULL,
+    language varchar(255) NOT NULL,
+    pages integer NOT NULL,
+    cover_url varchar(255),
+    price real NOT NULL,
+    stock integer NOT NULL,
+    row_version bigint NOT NULL DEFAULT 0,
+    reserved integer NOT NULL DEFAULT 0
+);
@@ -0,0 +1,14 @@
+-- last stock journal segment of every instance that is in the products table, see StockWriteBehind
+CREATE TABLE IF NOT EXISTS stock_journal_checkpoints (
+    journal_id varchar(36) PRIMARY KEY,
+    segment bigint NOT NULL
+);
+
+-- stock deltas written by the flush of a single product, subtracted when the segments after the checkpoint are replayed
+CREATE TABLE IF NOT EXISTS stock_journal_flushed_deltas (
+    journal_id varchar(36) NOT NULL,
+    segment bigint NOT NULL,
+    product_id uuid NOT NULL,
+    delta integer NOT NULL,
+    PRIMARY KEY (journal_id, segment, product_id)
+);
@@ -0,0 +1,80 @@
+package bookstore.authentication;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.Date;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class JwtUtilTests {
+
+    private static final String SECRET = "3979244226452948404D6351665468576D5A7134743777217A25432A462D4A614E645267556B586E3272357538782F413F4428472B4B6250655368566D5971337336763979244226452948404D635166546A576E5A7234753777217A25432A462D4A614E645267556B58703273357638792F413F4428472B4B6250655368566D";
+
+    private JwtUtil jwtUtil;
+
+    @Before
+    public void setUp() {
+        jwtUtil = new JwtUtil(SECRET, 100, Duration.ofHours(1));
+    }
+
+    private MockHttpServletRequest requestWithToken(String role, Date expiration, String secret) {
+        String token = Jwts.builder()
+                .claim("role", role)
+                .setExpiration(expiration)
+                // JwtUtil reads the configured key as base64 as well
+                .signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret)))
+                .compact();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private Date inOneHour() {
+        return new Date(System.currentTimeMillis() + 3600_000);
+    }
+
+    @Test
+    public void testAdminIsAllowed() {
+        assertTrue(jwtUtil.allowRequest(requestWithToken("ADMIN", inOneHour(), SECRET), Role.ADMIN.role));
+    }
+
+    @Test
+    public void testUserIsNotAllowedWhereAdminIsNeeded() {
+        assertFalse(jwtUtil.allowRequest(requestWithToken("USER", inOneHour(), SECRET), Role.ADMIN.role));
+    }
+
+    @Test
+    public void testMissingHeaderIsNotAllowed() {
+        assertFalse(jwtUtil.allowRequest(new MockHttpServletRequest(), Role.ADMIN.role));
+    }
+
+    @Test
+    public void testWrongSignatureIsNotAllowed() {
+        String otherSecret = SECRET.replace('3', '4');
+        assertFalse(jwtUtil.allowRequest(requestWithToken("ADMIN", inOneHour(), otherSecret), Role.ADMIN.role));
+    }
+
+    @Test
+    public void testExpiredTokenIsNotAllowed() {
+        Date expired = new Date(System.currentTimeMillis() - 1000);
+        assertFalse(jwtUtil.allowRequest(requestWithToken("ADMIN", expired, SECRET), Role.ADMIN.role));
+    }
+
+    @Test
+    public void testRepeatedTokenIsVerifiedOnce() {
+        MockHttpServletRequest request = requestWithToken("ADMIN", inOneHour(), SECRET);
+
+        assertTrue(jwtUtil.allowRequest(request, Role.ADMIN.role));
+        assertTrue(jwtUtil.allowRequest(request, Role.ADMIN.role));
+        assertTrue(jwtUtil.allowRequest(request, Role.ADMIN.role));
+
+        assertEquals(1L, jwtUtil.stats().get("verifications"));
+        assertEquals(2L, jwtUtil.stats().get("hits"));
+    }
+}
@@ -4,22 +4,78 @@ import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
 
+import bookstore.productservice.core.domain.service.implementation.CatalogVersion;
+import bookstore.productservice.core.domain.service.implementation.ProductCache;
+import bookstore.productservice.core.domain.service.implementation.ProductEventOutbox;
+import bookstore.productservice.core.domain.service.implementation.ProductMetrics;
+import bookstore.productservice.core.domain.service.implementation.ProductSearchIndex;
 import bookstore.productservice.core.domain.service.implementation.ProductService;
+import bookstore.productservice.core.domain.service.implementation.SearchResultCache;
+import bookstore.productservice.core.domain.service.implementation.ShardedProductRepository;
+import bookstore.productservice.core.domain.service.implementation.StockWriteBehind;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Root;
 import jakarta.validation.ConstraintViolationException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
 
 import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductFilter;
+import bookstore.productservice.core.domain.model.ProductFilterResult;
+import bookstore.productservice.core.domain.model.ProductImportResult;
+import bookstore.productservice.core.domain.model.ProductSuggestion;
+import bookstore.productservice.core.domain.model.ProductSummary;
+import bookstore.productservice.core.domain.model.ProductUpsertResult;
+import bookstore.productservice.core.domain.model.StockLevel;
+import bookstore.productservice.core.domain.model.StockReservation;
 import bookstore.productservice.core.domain.service.interfaces.IProductRepository;
+import bookstore.productservice.core.domain.service.interfaces.IStockReservationRepository;
+import bookstore.productservice.port.product.CacheInvalidationMessage;
 import bookstore.productservice.port.product.exception.EmptySearchResultException;
+import bookstore.productservice.port.product.exception.FilterNotAvailableException;
+import bookstore.productservice.port.product.exception.InsufficientStockException;
+import bookstore.productservice.port.product.exception.InvalidFilterException;
+import bookstore.productservice.port.product.exception.InvalidPatchException;
+import bookstore.productservice.port.product.exception.InvalidProductException;
+import bookstore.productservice.port.product.exception.InvalidQuantityException;
+import bookstore.productservice.port.product.exception.InvalidReservationException;
 import bookstore.productservice.port.product.exception.ProductAlreadyExistsException;
+import bookstore.productservice.port.product.exception.ProductModifiedException;
 import bookstore.productservice.port.product.exception.ProductNotFoundException;
+import bookstore.productservice.port.product.exception.ReservationNotFoundException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ProductServiceTests {
@@ -27,12 +83,66 @@ public class ProductServiceTests {
     @Mock
     private IProductRepository productRepository;
 
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private ProductEventOutbox eventOutbox;
+
+    @Mock
+    private IStockReservationRepository reservationRepository;
+
+    @Mock
+    private Root<Product> root;
+
+    @Mock
+    private CriteriaQuery<?> criteriaQuery;
+
+    @Mock
+    private CriteriaBuilder criteriaBuilder;
+
+    @Captor
+    private ArgumentCaptor<Specification<Product>> specification;
+
     private ProductService productService;
 
+    private ProductSearchIndex searchIndex;
+
+    private CatalogVersion catalogVersion;
+
+    private ProductCache productCache;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private SimpleMeterRegistry meterRegistry;
+
     @Before
     public void setUp() {
         productService = new ProductService();
         productService.setProductRepository(productRepository);
+        catalogVersion = new CatalogVersion();
+        productCache = new ProductCache(100, Duration.ofMinutes(1));
+        productCache.setCatalogVersion(catalogVersion);
+        productService.setProductCache(productCache);
+        searchIndex = new ProductSearchIndex();
+        productService.setSearchIndex(searchIndex);
+        SearchResultCache searchResultCache = new SearchResultCache(100, Duration.ofMinutes(1));
+        searchResultCache.setSearchIndex(searchIndex);
+        productService.setSearchResultCache(searchResultCache);
+        productService.setEntityManager(entityManager);
+        productService.setTransactionManager(transactionManager);
+        productService.setEventOutbox(eventOutbox);
+        meterRegistry = new SimpleMeterRegistry();
+        productService.setMetrics(new ProductMetrics(meterRegistry));
+        productService.setObjectMapper(objectMapper);
+        productService.setImportChunkSize(2);
+        productService.setReservationRepository(reservationRepository);
+        productService.setReservationTtl(Duration.ofMinutes(15));
+        productService.setMaxReservationTtl(Duration.ofHours(2));
+        productService.setStockFlushWait(Duration.ofSeconds(5));
     }
 
     public Product setupProduct(UUID uuid) {
@@ -94,6 +204,7 @@ public class ProductServiceTests {
         assertEquals(stock, createdProduct.getStock());
         verify(productRepository).findByIsbn13(isbn13);
         verify(productRepository).save(product);
+        verify(eventOutbox).productCreated(product);
     }
 
     @Test
@@ -106,6 +217,120 @@ public class ProductServiceTests {
         verify(productRepository, never()).save(secondProduct);
     }
 
+    @Test
+    public void testProductInvalidatedWhileLoadingByIsbn13IsNotCached() {
+        UUID uuid = UUID.randomUUID();
+        Product existing = setupProduct(uuid);
+        when(productRepository.findByIsbn13(existing.getIsbn13())).thenAnswer(invocation -> {
+            // the product is deleted after the row was read
+            productCache.invalidate(uuid);
+            return existing;
+        });
+
+        assertThrows(ProductAlreadyExistsException.class, () -> productService.createProduct(setupProduct(null)));
+        assertThrows(ProductAlreadyExistsException.class, () -> productService.createProduct(setupProduct(null)));
+
+        verify(productRepository, times(2)).findByIsbn13(existing.getIsbn13());
+    }
+
+    @Test
+    public void testImportProductsReportsEveryRow() {
+        Product created = setupProduct(null);
+        Product existing = new Product(null, "9780140714548", "The Great Gatsby", "1st", new String[]{"F. Scott Fitzgerald"},
+                new Date(), "Scribner", "Jay Gatsby", "English", 218, null, 9.99f, 10);
+        Product duplicateInImport = setupProduct(null);
+        Product invalid = new Product(null, "9780000000002", null, "1st", new String[]{"Nobody"},
+                new Date(), "Nowhere", "No title", "English", 1, null, 1f, 1);
+        when(productRepository.findExistingIsbn13s(Set.of(created.getIsbn13(), existing.getIsbn13())))
+                .thenReturn(Set.of(existing.getIsbn13()));
+        when(productRepository.findExistingIsbn13s(Set.of(duplicateInImport.getIsbn13(), invalid.getIsbn13())))
+                .thenReturn(Set.of());
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Product.class).setId(UUID.randomUUID());
+            return null;
+        }).when(entityManager).persist(any(Product.class));
+
+        List<ProductImportResult> results = productService.importProducts(
+                List.of(created, existing, duplicateInImport, invalid).iterator());
+
+        assertEquals(4, results.size());
+        assertEquals(ProductImportResult.Status.CREATED, results.get(0).getStatus());
+        assertNotNull(results.get(0).getId());
+        assertEquals(ProductImportResult.Status.DUPLICATE, results.get(1).getStatus());
+        assertEquals(ProductImportResult.Status.DUPLICATE, results.get(2).getStatus());
+        assertEquals(ProductImportResult.Status.INVALID, results.get(3).getStatus());
+        assertEquals(3, results.get(3).getRow());
+        verify(entityManager, times(1)).persist(created);
+        verify(eventOutbox, times(1)).productCreated(created);
+        verify(entityManager, times(2)).flush();
+        verify(productRepository, never()).findByIsbn13(any());
+        verify(productRepository, never()).save(any());
+    }
+
+    @Test
+    public void testImportProductsReportsUnreadableRows() throws Exception {
+        String row = "{\"isbn13\": \"%s\", \"title\": \"Macbeth\", \"version\": \"1st\", \"authors\": [\"William Shakespeare\"], " +
+                "\"publishingDate\": 0, \"publishingHouse\": \"Penguin Classics\", \"description\": \"A play\", \"language\": \"English\"}\n";
+        String input = row.formatted("9780141396316")
+                + "{\"isbn13\": \"9780141396323\", \"pages\": \"many\"}\n"
+                + row.formatted("9780141396330")
+                + "{\"isbn13\": \"9780141396347\" \"title\"}\n"
+                + row.formatted("9780141396354");
+        when(productRepository.findExistingIsbn13s(any())).thenReturn(Set.of());
+        doAnswer(invocation -> {
+            invocation.getArgument(0, Product.class).setId(UUID.randomUUID());
+            return null;
+        }).when(entityManager).persist(any(Product.class));
+
+        List<ProductImportResult> results = productService.importProducts(objectMapper.readerFor(Product.class).readValues(input));
+
+        // the row after the syntax error is not read
+        assertEquals(List.of(ProductImportResult.Status.CREATED, ProductImportResult.Status.INVALID,
+                        ProductImportResult.Status.CREATED, ProductImportResult.Status.INVALID),
+                results.stream().map(ProductImportResult::getStatus).toList());
+        assertEquals(1, results.get(1).getRow());
+        assertTrue(results.get(1).getMessage().startsWith("Invalid product"));
+        assertEquals("9780141396330", results.get(2).getIsbn13());
+        verify(entityManager, times(2)).persist(any(Product.class));
+    }
+
+    @Test
+    public void testUpsertProductCreatesProduct() throws InvalidProductException {
+        Product product = setupProduct(null);
+        Product stored = setupProduct(UUID.randomUUID());
+        when(productRepository.upsertByIsbn13(any())).thenReturn(new ProductUpsertResult(ProductUpsertResult.Status.CREATED, stored));
+
+        ProductUpsertResult result = productService.upsertProduct(product.getIsbn13(), product);
+
+        assertEquals(ProductUpsertResult.Status.CREATED, result.getStatus());
+        verify(eventOutbox).productCreated(stored);
+        assertEquals(1, searchIndex.size());
+    }
+
+    @Test
+    public void testUpsertUnchangedProductHasNoSideEffects() throws InvalidProductException {
+        Product product = setupProduct(null);
+        when(productRepository.upsertByIsbn13(any())).thenReturn(new ProductUpsertResult(ProductUpsertResult.Status.UNCHANGED, setupProduct(UUID.randomUUID())));
+        long version = catalogVersion.get();
+
+        ProductUpsertResult result = productService.upsertProduct(product.getIsbn13(), product);
+
+        assertEquals(ProductUpsertResult.Status.UNCHANGED, result.getStatus());
+        assertEquals(version, catalogVersion.get());
+        verifyNoInteractions(eventOutbox);
+    }
+
+    @Test
+    public void testUpsertProductRejectsMismatchingOrIncompleteProducts() {
+        Product product = setupProduct(null);
+        Product untitled = new Product(null, null, null, "1st", new String[]{"Nobody"},
+                new Date(), "Nowhere", "No title", "English", 1, null, 1f, 1);
+
+        assertThrows(InvalidProductException.class, () -> productService.upsertProduct("9780000000002", product));
+        assertThrows(InvalidProductException.class, () -> productService.upsertProduct("9780000000002", untitled));
+        verifyNoInteractions(productRepository);
+    }
+
     @Test
     public void testGetProductWithExistingId() {
         UUID uuid = UUID.randomUUID();
@@ -125,6 +350,96 @@ public class ProductServiceTests {
         assertNull(product);
     }
 
+    @Test
+    public void testGetProductIsServedFromCache() {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+
+        assertEquals(product, productService.getProduct(uuid));
+        assertEquals(product, productService.getProduct(uuid));
+
+        verify(productRepository, times(1)).findById(uuid);
+    }
+
+    @Test
+    public void testCacheFillReadsFromThePrimary() {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(setupProduct(uuid)));
+
+        productService.getProduct(uuid);
+
+        // a transaction that is not read-only is routed to the primary, see ReplicaRoutingDataSource
+        InOrder inOrder = inOrder(transactionManager, productRepository);
+        inOrder.verify(transactionManager).getTransaction(argThat(definition -> !definition.isReadOnly()));
+        inOrder.verify(productRepository).findById(uuid);
+        inOrder.verify(transactionManager).commit(any());
+    }
+
+    @Test
+    public void testProductInvalidatedWhileLoadingIsNotCached() {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findById(uuid)).thenAnswer(invocation -> {
+            // a write commits after the row was read
+            productCache.invalidate(uuid);
+            return Optional.of(product);
+        }).thenReturn(Optional.of(product));
+
+        productService.getProduct(uuid);
+        productService.getProduct(uuid);
+        productService.getProduct(uuid);
+
+        verify(productRepository, times(2)).findById(uuid);
+    }
+
+    @Test
+    public void testGetProductsByIdsLoadsOnlyUncachedProducts() {
+        UUID cached = UUID.randomUUID();
+        UUID uncached = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        Product cachedProduct = setupProduct(cached);
+        Product uncachedProduct = setupProduct(uncached);
+        when(productRepository.findById(cached)).thenReturn(Optional.of(cachedProduct));
+        when(productRepository.findAllById(Set.of(uncached, missing))).thenReturn(List.of(uncachedProduct));
+        productService.getProduct(cached);
+
+        List<Product> result = productService.getProducts(List.of(uncached, missing, cached, uncached));
+
+        assertEquals(List.of(uncachedProduct, cachedProduct), result);
+        verify(productRepository, times(1)).findAllById(any());
+    }
+
+    @Test
+    public void testProductsInvalidatedWhileLoadingByIdsAreNotCached() {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findAllById(Set.of(uuid))).thenAnswer(invocation -> {
+            // a write commits after the rows were read
+            productCache.invalidate(uuid);
+            return List.of(product);
+        });
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+
+        assertEquals(List.of(product), productService.getProducts(List.of(uuid)));
+        productService.getProduct(uuid);
+
+        verify(productRepository, times(1)).findById(uuid);
+    }
+
+    @Test
+    public void testRemoveProductInvalidatesCache() {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product), Optional.empty());
+
+        productService.getProduct(uuid);
+        productService.removeProduct(uuid);
+
+        assertNull(productService.getProduct(uuid));
+        verify(productRepository, times(2)).findById(uuid);
+    }
+
     @Test
     public void testGetProductsWithProducts() {
         List<Product> products = new ArrayList<>();
@@ -139,6 +454,28 @@ public class ProductServiceTests {
         assertEquals(products, result);
     }
 
+    @Test
+    public void testGetProductsFirstPage() {
+        List<Product> products = List.of(setupProduct(null), setupProduct(null));
+        when(productRepository.findAllByOrderByIdAsc(PageRequest.of(0, 2))).thenReturn(products);
+
+        List<Product> result = productService.getProducts(null, 2);
+
+        assertEquals(products, result);
+        verify(productRepository, never()).findAll();
+    }
+
+    @Test
+    public void testGetProductsAfterCursor() {
+        UUID cursor = UUID.randomUUID();
+        List<Product> products = List.of(setupProduct(null));
+        when(productRepository.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, 10))).thenReturn(products);
+
+        List<Product> result = productService.getProducts(cursor, 10);
+
+        assertEquals(products, result);
+    }
+
     @Test
     public void testGetProductsWithNoProducts() {
         when(productRepository.findAll()).thenReturn(null);
@@ -147,27 +484,155 @@ public class ProductServiceTests {
     }
 
     @Test
-    public void testUpdateProductWithExistingId() {
+    public void testUpdateProductWithExistingId() throws ProductModifiedException {
         UUID uuid = UUID.randomUUID();
         Product product = setupProduct(uuid);
-        when(productRepository.existsById(uuid)).thenReturn(true);
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+        when(productRepository.save(any(Product.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         productService.updateProduct(product);
 
-        verify(productRepository, times(1)).deleteById(uuid);
-        verify(productRepository, times(1)).save(product);
+        verify(productRepository, never()).deleteById(uuid);
+        verify(productRepository, times(1)).save(any(Product.class));
+        verify(eventOutbox).productUpdated(any(Product.class));
+    }
+
+    @Test
+    public void testUpdateProductKeepsReservedUnits() throws ProductModifiedException {
+        Product stored = reservedProduct(UUID.randomUUID(), 50, 4);
+        // the client was shown 46 and sends them back unchanged
+        Product sent = reservedProduct(stored.getId(), 46, 0);
+        when(productRepository.findById(stored.getId())).thenReturn(Optional.of(stored));
+        when(productRepository.save(any(Product.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        productService.updateProduct(sent);
+
+        ArgumentCaptor<Product> saved = ArgumentCaptor.forClass(Product.class);
+        verify(productRepository).save(saved.capture());
+        assertEquals(50, saved.getValue().getStock());
+        assertEquals(4, saved.getValue().getReserved());
+        assertEquals(46, saved.getValue().getAvailableStock());
+    }
+
+    @Test
+    public void testProductsReportAvailableStock() throws Exception {
+        Product product = reservedProduct(null, 50, 4);
+        ObjectWriter writer = objectMapper.writer(new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll()));
+
+        JsonNode json = objectMapper.readTree(writer.writeValueAsString(product));
+        assertEquals(46, json.get("stock").asInt());
+        assertFalse(json.has("reserved"));
+        assertEquals(46, objectMapper.readValue("{\"stock\": 46, \"reserved\": 4}", Product.class).getStock());
+
+        // the listing projection, as Spring Data creates it
+        SpelAwareProxyProjectionFactory projections = new SpelAwareProxyProjectionFactory();
+        assertTrue(projections.getProjectionInformation(ProductSummary.class).isClosed());
+        JsonNode summary = objectMapper.readTree(writer.writeValueAsString(projections.createProjection(ProductSummary.class, product)));
+        assertEquals(46, summary.get("stock").asInt());
+        assertFalse(summary.has("reserved"));
+    }
+
+    private Product reservedProduct(UUID id, int stock, int reserved) {
+        Product product = setupProduct(id);
+        return new Product(product.getId(), product.getIsbn13(), product.getTitle(), product.getVersion(),
+                product.getAuthors(), product.getPublishingDate(), product.getPublishingHouse(), product.getDescription(),
+                product.getLanguage(), product.getPages(), product.getCoverUrl(), product.getPrice(), stock, 0, reserved);
     }
 
     @Test
-    public void testUpdateProductWithNonExistingId() {
+    public void testUpdateProductWithNonExistingId() throws ProductModifiedException {
         UUID uuid = UUID.randomUUID();
         Product product = setupProduct(uuid);
-        when(productRepository.existsById(uuid)).thenReturn(false);
+        when(productRepository.findById(uuid)).thenReturn(Optional.empty());
 
         productService.updateProduct(product);
 
         verify(productRepository, never()).deleteById(uuid);
-        verify(productRepository, never()).save(product);
+        verify(productRepository, never()).save(any(Product.class));
+        verifyNoInteractions(eventOutbox);
+    }
+
+    @Test
+    public void testUpdateProductWithStaleVersion() {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+        when(productRepository.save(any(Product.class))).thenThrow(new ObjectOptimisticLockingFailureException(Product.class, uuid));
+
+        assertThrows(ProductModifiedException.class, () -> productService.updateProduct(product));
+        verifyNoInteractions(eventOutbox);
+    }
+
+    @Test
+    public void testPatchProductChangesOnlyPatchedFields() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        String title = product.getTitle();
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+
+        Product patched = productService.patchProduct(uuid, objectMapper.readTree("{\"price\": 7.5, \"coverUrl\": null}"), null);
+
+        assertEquals(7.5f, patched.getPrice(), 0.0);
+        assertNull(patched.getCoverUrl());
+        assertEquals(title, patched.getTitle());
+        verify(entityManager).flush();
+        verify(productRepository, never()).save(any());
+        verify(eventOutbox).productUpdated(product);
+    }
+
+    @Test
+    public void testPatchProductToFreeIsbn13() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+        // like Hibernate's auto flush, a query after the patch would find the patched product itself
+        when(productRepository.findByIsbn13(anyString())).thenAnswer(invocation ->
+                invocation.getArgument(0).equals(product.getIsbn13()) ? product : null);
+
+        Product patched = productService.patchProduct(uuid, objectMapper.readTree("{\"isbn13\": \"9780143105428\"}"), null);
+
+        assertEquals("9780143105428", patched.getIsbn13());
+        verify(eventOutbox).productUpdated(product);
+    }
+
+    @Test
+    public void testPatchProductToTakenIsbn13() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        Product product = setupProduct(uuid);
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+        when(productRepository.findByIsbn13("9780143105428")).thenReturn(setupProduct(null));
+
+        assertThrows(ProductAlreadyExistsException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("{\"isbn13\": \"9780143105428\"}"), null));
+        assertEquals("9780141396316", product.getIsbn13());
+        verify(entityManager, never()).flush();
+    }
+
+    @Test
+    public void testPatchProductRejectsInvalidPatches() throws Exception {
+        UUID uuid = UUID.randomUUID();
+
+        assertThrows(InvalidPatchException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("{\"id\": \"" + UUID.randomUUID() + "\"}"), null));
+        assertThrows(InvalidPatchException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("{\"stock\": 5}"), null));
+        assertThrows(InvalidPatchException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("{\"title\": null}"), null));
+        assertThrows(InvalidPatchException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("[]"), null));
+        verifyNoInteractions(productRepository, eventOutbox);
+    }
+
+    @Test
+    public void testPatchProductWithStaleRowVersion() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.findById(uuid)).thenReturn(Optional.of(setupProduct(uuid)));
+
+        assertThrows(ProductModifiedException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("{\"price\": 1}"), 3L));
+        verify(entityManager, never()).flush();
+    }
+
+    @Test
+    public void testPatchProductWithNonExistingId() {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.findById(uuid)).thenReturn(Optional.empty());
+
+        assertThrows(ProductNotFoundException.class, () -> productService.patchProduct(uuid, objectMapper.readTree("{\"price\": 1}"), null));
     }
 
     @Test
@@ -178,36 +643,136 @@ public class ProductServiceTests {
         productService.removeProduct(uuid);
 
         verify(productRepository, times(1)).deleteById(uuid);
+        verify(eventOutbox).productDeleted(uuid);
     }
 
     @Test
-    public void testRemoveProductWithNonExistingId() {
+    public void testWritesChangeCatalogVersion() throws Exception {
         UUID uuid = UUID.randomUUID();
+        when(productRepository.addStock(uuid, 5)).thenReturn(StockLevel.of(55, 0, 1));
+        long before = catalogVersion.get();
+
+        productService.addStock(uuid, 5);
+        long afterStock = catalogVersion.get();
         productService.removeProduct(uuid);
 
-        verify(productRepository, times(1)).deleteById(uuid);
+        assertNotEquals(before, afterStock);
+        assertNotEquals(afterStock, catalogVersion.get());
     }
 
     @Test
-    public void testAddStockWithExistingProduct() throws ProductNotFoundException {
+    public void testCatalogVersionChangesAfterSearchIndex() throws Exception {
         UUID uuid = UUID.randomUUID();
         Product product = setupProduct(uuid);
-        when(productRepository.existsById(uuid)).thenReturn(true);
         when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
+        long before = catalogVersion.get();
 
-        productService.addStock(uuid, 50);
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            productService.patchProduct(uuid, objectMapper.readTree("{\"title\": \"Hamlet\"}"), null);
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationUtils.invokeAfterCommit(synchronizations);
+            assertEquals(before, catalogVersion.get());
+            assertEquals(List.of(product), productService.searchProduct("hamlet"));
 
-        verify(productRepository, times(1)).findById(uuid);
-        verify(productRepository, times(1)).save(product);
-        assertEquals(product.getStock(), 100);
+            TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+            assertNotEquals(before, catalogVersion.get());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
     }
 
     @Test
-    public void testAddStockWithNonExistingProduct() throws ProductNotFoundException {
+    public void testReplicasTakeTheCatalogVersionOfTheInvalidation() {
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        productCache.setRabbitTemplate(rabbitTemplate);
+        productCache.setCacheInvalidationExchange(new FanoutExchange("productservice.cache-invalidation"));
         UUID uuid = UUID.randomUUID();
-        when(productRepository.existsById(uuid)).thenReturn(false);
+
+        productCache.invalidate(uuid);
+
+        ArgumentCaptor<CacheInvalidationMessage> sent = ArgumentCaptor.forClass(CacheInvalidationMessage.class);
+        verify(rabbitTemplate).convertAndSend(eq("productservice.cache-invalidation"), eq(""), sent.capture());
+        assertEquals(Long.valueOf(catalogVersion.get()), sent.getValue().getCatalogVersion());
+
+        // the replica switches to the version of the message, not to whatever the sequence says at that moment
+        CatalogVersion replicaVersion = new CatalogVersion();
+        ProductCache replica = new ProductCache(100, Duration.ofMinutes(1));
+        replica.setCatalogVersion(replicaVersion);
+        replica.onInvalidation(new CacheInvalidationMessage("another-instance", uuid, null, 42L));
+        assertEquals(42, replicaVersion.get());
+    }
+
+    @Test
+    public void testRemoveProductWithNonExistingId() {
+        UUID uuid = UUID.randomUUID();
+        productService.removeProduct(uuid);
+
+        verify(productRepository, times(1)).deleteById(uuid);
+    }
+
+    @Test
+    public void testAddStockWithExistingProduct() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.addStock(uuid, 50)).thenReturn(StockLevel.of(100, 0, 7));
+
+        int stock = productService.addStock(uuid, 50);
+
+        assertEquals(stock, 100);
+        verify(productRepository, never()).findById(uuid);
+        verify(productRepository, never()).save(any());
+        verify(eventOutbox).stockChanged(uuid, StockLevel.of(100, 0, 7));
+    }
+
+    @Test
+    public void testAddStockWithNonExistingProduct() {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.addStock(uuid, 50)).thenReturn(null);
 
         assertThrows(ProductNotFoundException.class, () -> productService.addStock(uuid, 50));
+        verifyNoInteractions(eventOutbox);
+        assertEquals(1.0, meterRegistry.counter("productservice.product.not-found").count(), 0.0);
+    }
+
+    @Test
+    public void testAddNegativeStockRemovesStock() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.removeStock(uuid, 20)).thenReturn(StockLevel.of(30, 0, 2));
+
+        int stock = productService.addStock(uuid, -20);
+
+        assertEquals(stock, 30);
+        verify(productRepository, never()).addStock(any(), anyInt());
+    }
+
+    @Test
+    public void testRemoveStockRejectsNonPositiveQuantity() {
+        UUID uuid = UUID.randomUUID();
+
+        assertThrows(InvalidQuantityException.class, () -> productService.removeStock(uuid, -5));
+        assertThrows(InvalidQuantityException.class, () -> productService.removeStock(uuid, 0));
+        // -Integer.MIN_VALUE is still negative
+        assertThrows(InvalidQuantityException.class, () -> productService.addStock(uuid, Integer.MIN_VALUE));
+        verifyNoInteractions(productRepository, eventOutbox);
+    }
+
+    @Test
+    public void testRemoveStockWithInsufficientStock() {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.removeStock(uuid, 80)).thenReturn(null);
+        when(productRepository.existsById(uuid)).thenReturn(true);
+
+        assertThrows(InsufficientStockException.class, () -> productService.removeStock(uuid, 80));
+        assertEquals(1.0, meterRegistry.counter("productservice.stock.conflicts", "reason", "insufficient-stock").count(), 0.0);
+    }
+
+    @Test
+    public void testRemoveStockWithNonExistingProduct() {
+        UUID uuid = UUID.randomUUID();
+        when(productRepository.removeStock(uuid, 10)).thenReturn(null);
+        when(productRepository.existsById(uuid)).thenReturn(false);
+
+        assertThrows(ProductNotFoundException.class, () -> productService.removeStock(uuid, 10));
     }
 
     @Test
@@ -215,7 +780,6 @@ public class ProductServiceTests {
         UUID uuid = UUID.randomUUID();
         Product product = setupProduct(uuid);
 
-        when(productRepository.existsById(uuid)).thenReturn(true);
         when(productRepository.findById(uuid)).thenReturn(Optional.of(product));
 
         int stock = productService.getStock(uuid);
@@ -223,22 +787,34 @@ public class ProductServiceTests {
         assertEquals(stock, 50);
     }
 
+    @Test
+    public void testGetStocksUsesOneQuery() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        List<UUID> ids = List.of(first, second, missing);
+        when(productRepository.findAllById(ids)).thenReturn(List.of(setupProduct(first), setupProduct(second)));
+
+        Map<UUID, Integer> stocks = productService.getStocks(ids);
+
+        assertEquals(Map.of(first, 50, second, 50), stocks);
+        verify(productRepository, times(1)).findAllById(ids);
+        verify(productRepository, never()).findById(any());
+    }
+
     @Test(expected = ProductNotFoundException.class)
     public void testGetStockThrowsProductNotFoundException() throws ProductNotFoundException {
         UUID productId = UUID.randomUUID();
 
-        when(productRepository.existsById(productId)).thenReturn(false);
+        when(productRepository.findById(productId)).thenReturn(Optional.empty());
 
         productService.getStock(productId);
     }
 
     @Test
     public void testSearchProductByName() throws EmptySearchResultException {
-        List<Product> products = new ArrayList<>();
         Product product = setupProduct(null);
-        products.add(product);
-
-        when(productRepository.findByTitleContainingIgnoreCase("The Tragedy of Macbeth")).thenReturn(products);
+        searchIndex.add(product);
 
         List<Product> result = productService.searchProduct("The Tragedy of Macbeth");
 
@@ -248,11 +824,8 @@ public class ProductServiceTests {
 
     @Test
     public void testSearchProductByIsbn13() throws EmptySearchResultException {
-        List<Product> products = new ArrayList<>();
         Product product = setupProduct(null);
-        products.add(product);
-
-        when(productRepository.findByIsbn13ContainingIgnoreCase("9780141396316")).thenReturn(products);
+        searchIndex.add(product);
 
         List<Product> result = productService.searchProduct("9780141396316");
 
@@ -260,12 +833,338 @@ public class ProductServiceTests {
         assertEquals(result.get(0), product);
     }
 
+    @Test
+    public void testSearchProductByPartialIsbn13() throws EmptySearchResultException {
+        Product product = setupProduct(null);
+        searchIndex.add(product);
+
+        List<Product> result = productService.searchProduct("141396");
+
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0), product);
+    }
+
+    @Test
+    public void testSearchProductByAuthorPrefix() throws EmptySearchResultException {
+        Product product = setupProduct(null);
+        searchIndex.add(product);
+
+        List<Product> result = productService.searchProduct("shakesp");
+
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0), product);
+        verifyNoInteractions(productRepository);
+    }
+
+    @Test
+    public void testSearchProductRanksTitleAboveDescription() throws EmptySearchResultException {
+        Product titleMatch = setupProduct(null);
+        Product descriptionMatch = new Product(UUID.randomUUID(), "9780743477109", "Collected Plays", "1st",
+                new String[]{"Various"}, new Date(), "Folger", "Contains Macbeth and others.", "English", 300, null, 20f, 3);
+        searchIndex.add(descriptionMatch);
+        searchIndex.add(titleMatch);
+
+        List<Product> result = productService.searchProduct("macbeth");
+
+        assertEquals(List.of(titleMatch, descriptionMatch), result);
+    }
+
+    @Test
+    public void testSearchProductDoesNotFindRemovedProduct() {
+        UUID uuid = UUID.randomUUID();
+        searchIndex.add(setupProduct(uuid));
+
+        productService.removeProduct(uuid);
+
+        assertThrows(EmptySearchResultException.class, () -> productService.searchProduct("Macbeth"));
+    }
+
+    @Test
+    public void testSearchCountsHitsAndEmptyResults() throws EmptySearchResultException {
+        searchIndex.add(setupProduct(null));
+
+        productService.searchProduct("macbeth");
+        assertThrows(EmptySearchResultException.class, () -> productService.searchProduct("juliet"));
+
+        assertEquals(1.0, meterRegistry.counter("productservice.search", "result", "hit").count(), 0.0);
+        assertEquals(1.0, meterRegistry.counter("productservice.search", "result", "empty").count(), 0.0);
+    }
+
+    @Test
+    public void testCachedEmptySearchResultIsOutdatedByNewProduct() throws EmptySearchResultException {
+        searchIndex.add(setupProduct(null));
+        assertThrows(EmptySearchResultException.class, () -> productService.searchProduct("hamlet"));
+
+        Product hamlet = new Product(UUID.randomUUID(), "9780141396507", "Hamlet", "1st", new String[]{"William Shakespeare"},
+                new Date(), "Penguin Classics", "Prince of Denmark", "English", 200, null, 8.99f, 10);
+        searchIndex.add(hamlet);
+
+        assertEquals(List.of(hamlet), productService.searchProduct("HAMLET"));
+    }
+
+    private Product book(String title, String author, int stock) {
+        return new Product(UUID.randomUUID(), "978" + Math.abs(title.hashCode()), title, "1st", new String[]{author},
+                new Date(), "Penguin Classics", title, "English", 100, null, 9.99f, stock);
+    }
+
+    @Test
+    public void testSuggestCompletesAnyWordRankedByStock() {
+        searchIndex.add(book("War and Peace", "Leo Tolstoy", 5));
+        searchIndex.add(book("Peace Talks", "Jim Butcher", 50));
+        searchIndex.add(book("Warden", "Anthony Trollope", 20));
+
+        List<ProductSuggestion> suggestions = productService.suggestProducts("pea", 10);
+
+        assertEquals(List.of("Peace Talks", "War and Peace"), suggestions.stream().map(ProductSuggestion::getText).toList());
+        assertEquals(List.of("War and Peace"), productService.suggestProducts("War ", 10).stream().map(ProductSuggestion::getText).toList());
+        assertEquals(ProductSuggestion.Field.AUTHOR, productService.suggestProducts("tolst", 10).get(0).getField());
+    }
+
+    @Test
+    public void testSuggestListsAnAuthorOnce() {
+        Product emma = book("Emma", "Jane Austen", 1);
+        Product persuasion = book("Persuasion", "Jane Austen", 9);
+        searchIndex.add(emma);
+        searchIndex.add(persuasion);
+
+        List<ProductSuggestion> suggestions = productService.suggestProducts("austen", 10);
+
+        assertEquals(1, suggestions.size());
+        assertNull(suggestions.get(0).getProductId());
+        assertEquals(persuasion.getId(), productService.suggestProducts("persua", 10).get(0).getProductId());
+    }
+
+    @Test
+    public void testSuggestFollowsCatalogChanges() {
+        Product war = book("War and Peace", "Leo Tolstoy", 5);
+        Product warden = book("Warden", "Anthony Trollope", 20);
+        searchIndex.add(war);
+        searchIndex.add(warden);
+        assertEquals("Warden", productService.suggestProducts("w", 1).get(0).getText());
+
+        searchIndex.updateStock(war.getId(), StockLevel.of(100, 0, 1));
+        assertEquals("War and Peace", productService.suggestProducts("w", 1).get(0).getText());
+
+        searchIndex.updateStock(war.getId(), StockLevel.of(1, 0, 2));
+        assertEquals("Warden", productService.suggestProducts("w", 1).get(0).getText());
+        searchIndex.updateStock(war.getId(), StockLevel.of(100, 0, 3));
+
+        searchIndex.remove(war.getId());
+        assertEquals("Warden", productService.suggestProducts("w", 1).get(0).getText());
+        assertTrue(productService.suggestProducts("tolstoy", 10).isEmpty());
+    }
+
+    @Test
+    public void testFilterProductsReturnsPageAndFacets() throws Exception {
+        Product product = setupProduct(null);
+        PageRequest pageable = PageRequest.of(0, 10);
+        when(productRepository.findAll(specification.capture(), eq(pageable)))
+                .thenReturn(new PageImpl<>(List.of(product), pageable, 11));
+        when(productRepository.countByAttribute(specification.capture(), eq("language"), anyInt()))
+                .thenReturn(Map.of("English", 11L));
+        when(productRepository.countByAttribute(specification.capture(), eq("publishingHouse"), anyInt()))
+                .thenReturn(Map.of("Penguin Classics", 11L));
+        when(productRepository.countByStock(specification.capture())).thenReturn(Map.of("true", 11L, "false", 0L));
+
+        ProductFilterResult result = productService.filterProducts(ProductFilter.builder()
+                .language("English").publishingHouse("Penguin Classics").inStock(true).build(), pageable);
+
+        assertEquals(List.of(product), result.getProducts());
+        assertEquals(11, result.getTotalElements());
+        assertEquals(2, result.getTotalPages());
+        assertEquals(List.of("language", "publishingHouse", "inStock"), new ArrayList<>(result.getFacets().keySet()));
+        assertEquals(Long.valueOf(11), result.getFacets().get("language").get("English"));
+
+        // the page applies every criterion, each facet all but its own
+        List<Specification<Product>> specifications = specification.getAllValues();
+        assertEquals(Set.of("language = English", "publishingHouse = Penguin Classics", "stock - reserved > 0"), criteria(specifications.get(0)));
+        assertEquals(Set.of("publishingHouse = Penguin Classics", "stock - reserved > 0"), criteria(specifications.get(1)));
+        assertEquals(Set.of("language = English", "stock - reserved > 0"), criteria(specifications.get(2)));
+        assertEquals(Set.of("language = English", "publishingHouse = Penguin Classics"), criteria(specifications.get(3)));
+    }
+
+    // the comparisons a specification builds, with the attribute name of the mocked path
+    private Set<String> criteria(Specification<Product> specification) {
+        Set<String> criteria = new HashSet<>();
+        lenient().when(root.get(anyString())).thenAnswer(invocation ->
+                mock(Path.class, withSettings().name(invocation.getArgument(0))));
+        lenient().when(criteriaBuilder.equal(any(), any(Object.class))).thenAnswer(invocation -> {
+            criteria.add(invocation.getArgument(0) + " = " + invocation.getArgument(1));
+            return null;
+        });
+        lenient().when(criteriaBuilder.diff(ArgumentMatchers.<Expression<Integer>>any(), ArgumentMatchers.<Expression<Integer>>any()))
+                .thenAnswer(invocation -> mock(Expression.class,
+                        withSettings().name(invocation.getArgument(0) + " - " + invocation.getArgument(1))));
+        lenient().when(criteriaBuilder.gt(ArgumentMatchers.<Expression<Integer>>any(), anyInt())).thenAnswer(invocation -> {
+            criteria.add(invocation.getArgument(0) + " > " + invocation.getArgument(1));
+            return null;
+        });
+        specification.toPredicate(root, criteriaQuery, criteriaBuilder);
+        return criteria;
+    }
+
+    @Test(expected = InvalidFilterException.class)
+    public void testFilterProductsRejectsInvertedPriceRange() throws Exception {
+        productService.filterProducts(ProductFilter.builder().minPrice(20f).maxPrice(10f).build(), PageRequest.of(0, 10));
+    }
+
+    @Test(expected = FilterNotAvailableException.class)
+    public void testFilterProductsIsNotAvailableOnShards() throws Exception {
+        productService.setShardedRepository(mock(ShardedProductRepository.class));
+
+        productService.filterProducts(ProductFilter.builder().language("English").build(), PageRequest.of(0, 10));
+    }
+
+    @Test
+    public void testReserveStockHoldsUnits() throws Exception {
+        UUID productId = UUID.randomUUID();
+        when(reservationRepository.save(any(StockReservation.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(productRepository.reserveStock(productId, 2)).thenReturn(StockLevel.of(8, 0, 3));
+
+        StockReservation reservation = productService.reserveStock(productId, "cart-1", 2, Duration.ofMinutes(5));
+
+        assertEquals(productId, reservation.getProductId());
+        assertEquals(2, reservation.getQuantity());
+        assertTrue(reservation.getExpiresAt().isAfter(Instant.now().plus(Duration.ofMinutes(4))));
+        verify(entityManager).flush();
+        verify(eventOutbox).stockChanged(productId, StockLevel.of(8, 0, 3));
+    }
+
+    @Test
+    public void testReleaseReservationPublishesAvailableStock() throws Exception {
+        UUID productId = UUID.randomUUID();
+        StockReservation reservation = new StockReservation(UUID.randomUUID(), productId, "cart-1", 3, Instant.now().plusSeconds(60));
+        when(reservationRepository.lockById(reservation.getId())).thenReturn(Optional.of(reservation));
+        when(productRepository.releaseReservedStock(productId, 3)).thenReturn(StockLevel.of(11, 0, 4));
+
+        productService.releaseReservation(reservation.getId());
+
+        verify(reservationRepository).delete(reservation);
+        verify(eventOutbox).stockChanged(productId, StockLevel.of(11, 0, 4));
+    }
+
+    @Test(expected = InsufficientStockException.class)
+    public void testReserveStockThrowsInsufficientStockException() throws Exception {
+        UUID productId = UUID.randomUUID();
+        when(productRepository.reserveStock(productId, 2)).thenReturn(null);
+        when(productRepository.existsById(productId)).thenReturn(true);
+
+        productService.reserveStock(productId, "cart-1", 2, null);
+    }
+
+    @Test
+    public void testReserveStockFlushesPendingIncreases() throws Exception {
+        UUID productId = UUID.randomUUID();
+        StockWriteBehind stockWriteBehind = mock(StockWriteBehind.class);
+        productService.setStockWriteBehind(stockWriteBehind);
+        StockWriteBehind.Drain drain = new StockWriteBehind.Drain(Map.of(productId, 5), 1, false);
+        when(stockWriteBehind.pending(productId)).thenReturn(5L);
+        when(stockWriteBehind.drain(productId)).thenReturn(drain);
+        when(productRepository.addStocks(drain.deltas())).thenReturn(Map.of(productId, StockLevel.of(5, 0, 1)));
+        when(reservationRepository.save(any(StockReservation.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        // the only units of the product are still in the write-behind counter
+        when(productRepository.reserveStock(productId, 2)).thenReturn(null, StockLevel.of(3, 0, 2));
+
+        productService.reserveStock(productId, "cart-1", 2, null);
+
+        verify(productRepository).addStocks(drain.deltas());
+        verify(productRepository, times(2)).reserveStock(productId, 2);
+        // the other products wait for the next flush, not in this transaction
+        verify(stockWriteBehind, never()).drain();
+    }
+
+    @Test
+    public void testRemoveStockWaitsForTheFlushOfItsProduct() throws Exception {
+        UUID productId = UUID.randomUUID();
+        StockWriteBehind stockWriteBehind = mock(StockWriteBehind.class);
+        productService.setStockWriteBehind(stockWriteBehind);
+        // the scheduled flush has taken every pending unit of the product
+        when(stockWriteBehind.pending(productId)).thenReturn(5L);
+        when(productRepository.removeStock(productId, 2)).thenReturn(null, StockLevel.of(3, 0, 2));
+
+        assertEquals(3, productService.removeStock(productId, 2));
+
+        InOrder inOrder = inOrder(stockWriteBehind, productRepository);
+        inOrder.verify(stockWriteBehind).awaitFlush(productId, Duration.ofSeconds(5));
+        inOrder.verify(productRepository).removeStock(productId, 2);
+        verify(productRepository, never()).addStocks(any());
+    }
+
+    @Test(expected = InvalidReservationException.class)
+    public void testReserveStockRejectsTooLongTtl() throws Exception {
+        productService.reserveStock(UUID.randomUUID(), "cart-1", 1, Duration.ofDays(1));
+    }
+
+    @Test
+    public void testConfirmReservationCommitsStock() throws Exception {
+        UUID productId = UUID.randomUUID();
+        StockReservation reservation = new StockReservation(UUID.randomUUID(), productId, "cart-1", 3, Instant.now().plusSeconds(60));
+        when(reservationRepository.lockById(reservation.getId())).thenReturn(Optional.of(reservation));
+        when(productRepository.commitReservedStock(productId, 3)).thenReturn(StockLevel.of(7, 0, 5));
+
+        assertEquals(7, productService.confirmReservation(reservation.getId()));
+        verify(reservationRepository).delete(reservation);
+        verify(eventOutbox).stockChanged(productId, StockLevel.of(7, 0, 5));
+    }
+
+    @Test(expected = ReservationNotFoundException.class)
+    public void testConfirmExpiredReservationThrowsReservationNotFoundException() throws Exception {
+        StockReservation reservation = new StockReservation(UUID.randomUUID(), UUID.randomUUID(), "cart-1", 3, Instant.now().minusSeconds(1));
+        when(reservationRepository.lockById(reservation.getId())).thenReturn(Optional.of(reservation));
+
+        productService.confirmReservation(reservation.getId());
+    }
+
+    @Test
+    public void testReleaseExpiredReservationsReleasesOncePerProduct() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        Instant expired = Instant.now().minusSeconds(1);
+        List<StockReservation> reservations = List.of(
+                new StockReservation(UUID.randomUUID(), first, "cart-1", 2, expired),
+                new StockReservation(UUID.randomUUID(), second, "cart-2", 1, expired),
+                new StockReservation(UUID.randomUUID(), first, "cart-3", 3, expired));
+        when(reservationRepository.lockExpired(any(Instant.class), eq(10))).thenReturn(reservations);
+
+        assertEquals(3, productService.releaseExpiredReservations(10));
+        verify(productRepository).releaseReservedStock(first, 5);
+        verify(productRepository).releaseReservedStock(second, 1);
+        verify(reservationRepository).deleteByIds(reservations.stream().map(StockReservation::getId).toList());
+    }
+
+    @Test
+    public void testAddStockInWriteBehindModeIsJournaledNotWritten() throws Exception {
+        Product stored = setupProduct(null);
+        // 4 of the 50 units are held by reservations
+        Product product = new Product(stored.getId(), stored.getIsbn13(), stored.getTitle(), stored.getVersion(),
+                stored.getAuthors(), stored.getPublishingDate(), stored.getPublishingHouse(), stored.getDescription(),
+                stored.getLanguage(), stored.getPages(), stored.getCoverUrl(), stored.getPrice(), 50, 0, 4);
+        StockWriteBehind stockWriteBehind = mock(StockWriteBehind.class);
+        productService.setStockWriteBehind(stockWriteBehind);
+        when(productRepository.findById(product.getId())).thenReturn(Optional.of(product));
+        when(stockWriteBehind.pending(product.getId())).thenReturn(5L);
+
+        assertEquals(51, productService.addStock(product.getId(), 1));
+        assertEquals(51, productService.getStock(product.getId()));
+        verify(stockWriteBehind).add(product.getId(), 1);
+        verify(productRepository, never()).addStock(any(), anyInt());
+    }
+
+    @Test
+    public void testGetStocksSubtractsReservedStock() {
+        Product product = setupProduct(null);
+        Product reserved = new Product(product.getId(), product.getIsbn13(), product.getTitle(), product.getVersion(),
+                product.getAuthors(), product.getPublishingDate(), product.getPublishingHouse(), product.getDescription(),
+                product.getLanguage(), product.getPages(), product.getCoverUrl(), product.getPrice(), 10, 0, 4);
+        when(productRepository.findAllById(Set.of(product.getId()))).thenReturn(List.of(reserved));
+
+        assertEquals(Map.of(product.getId(), 6), productService.getStocks(Set.of(product.getId())));
+    }
+
     @Test(expected = EmptySearchResultException.class)
     public void testSearchProductThrowsEmptySearchResultException() throws EmptySearchResultException {
-        when(productRepository.findByTitleContainingIgnoreCase("Romeo and Juliet")).thenReturn(new ArrayList<>());
-        when(productRepository.findByIsbn13ContainingIgnoreCase("Romeo and Juliet")).thenReturn(new ArrayList<>());
+        searchIndex.add(setupProduct(null));
 
         productService.searchProduct("Romeo and Juliet");
     }
 }
-
@@ -0,0 +1,53 @@
+package bookstore.productservice;
+
+import static org.junit.Assert.*;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.ProductSummary;
+import bookstore.productservice.port.product.CustomReply;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.data.projection.TargetAware;
+
+public class ProductserviceRuntimeHintsTests {
+
+    private final RuntimeHints hints = new RuntimeHints();
+
+    @Before
+    public void setUp() {
+        new ProductserviceRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @Test
+    public void testJsonTypesCanBeBound() {
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(Product.class, "getIsbn13").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(CustomReply.class, "setInStock").test(hints));
+    }
+
+    @Test
+    public void testSummaryProjectionProxy() {
+        Class<?>[] interfaces = AopProxyUtils.completeJdkProxyInterfaces(ProductSummary.class, TargetAware.class);
+        assertTrue(RuntimeHintsPredicates.proxies().forInterfaces(interfaces).test(hints));
+    }
+
+    @Test
+    public void testJwtImplementationCanBeCreated() {
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("io.jsonwebtoken.impl.DefaultJwtParserBuilder"))
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS)
+                .test(hints));
+        assertTrue(RuntimeHintsPredicates.resource().forResource("META-INF/services/io.jsonwebtoken.io.Deserializer").test(hints));
+    }
+
+    @Test
+    public void testSqlInitScriptsAreIncluded() {
+        assertTrue(RuntimeHintsPredicates.resource().forResource("db/indexes.sql").test(hints));
+        assertTrue(RuntimeHintsPredicates.resource().forResource("db/stock-journal.sql").test(hints));
+    }
+
+}
@@ -0,0 +1,96 @@
+package bookstore.productservice;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.List;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReplicaRoutingDataSourceTests {
+
+    @Mock
+    private HikariDataSource primary;
+
+    @Mock
+    private HikariDataSource firstReplica;
+
+    @Mock
+    private HikariDataSource secondReplica;
+
+    private ReplicaRoutingDataSource dataSource;
+
+    @Before
+    public void setUp() {
+        when(firstReplica.getPoolName()).thenReturn("replica-1");
+        when(secondReplica.getPoolName()).thenReturn("replica-2");
+        dataSource = new ReplicaRoutingDataSource(primary, List.of(firstReplica, secondReplica), Duration.ofSeconds(10));
+        dataSource.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    }
+
+    @Test
+    public void testWritesGoToThePrimary() {
+        assertEquals(ReplicaRoutingDataSource.PRIMARY, dataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    public void testReadOnlyTransactionsAreSpreadOverTheReplicas() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertEquals("replica-1", dataSource.determineCurrentLookupKey());
+        assertEquals("replica-2", dataSource.determineCurrentLookupKey());
+        assertEquals("replica-1", dataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    public void testReadsFallBackToThePrimaryWhenAReplicaFails() throws SQLException {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        Connection connection = mock(Connection.class);
+        when(firstReplica.getConnection()).thenThrow(new SQLTransientConnectionException("down"));
+        when(primary.getConnection()).thenReturn(connection);
+
+        assertSame(connection, dataSource.getConnection());
+        // the failed replica is skipped from now on
+        assertEquals("replica-2", dataSource.determineCurrentLookupKey());
+        assertEquals("replica-2", dataSource.determineCurrentLookupKey());
+    }
+
+    @Test
+    public void testAsyncRequestDoesNotLeaveTheThreadOnThePrimary() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        ReadYourWrites readYourWrites = new ReadYourWrites(Duration.ofSeconds(5));
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getCookies()).thenReturn(new Cookie[]{
+                new Cookie(ReadYourWrites.COOKIE, String.valueOf(System.currentTimeMillis() + 5000))});
+        HttpServletResponse response = mock(HttpServletResponse.class);
+
+        readYourWrites.preHandle(request, response, null);
+        assertEquals(ReplicaRoutingDataSource.PRIMARY, dataSource.determineCurrentLookupKey());
+        // the export streams on another thread, this one serves the next request
+        readYourWrites.afterConcurrentHandlingStarted(request, response, null);
+
+        assertEquals("replica-1", dataSource.determineCurrentLookupKey());
+    }
+
+}
@@ -0,0 +1,208 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import bookstore.productservice.core.domain.model.Product;
+import bookstore.productservice.core.domain.model.StockLevel;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardedProductRepositoryTests {
+
+    @Mock
+    private JdbcTemplate firstShard;
+
+    @Mock
+    private JdbcTemplate secondShard;
+
+    @Mock
+    private IsbnDirectory directory;
+
+    private final ShardRouter router = new ShardRouter(List.of("shard-1", "shard-2"));
+
+    private ShardedProductRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new ShardedProductRepository(List.of(firstShard, secondShard), router, directory, Runnable::run);
+    }
+
+    @Test
+    public void testRouterSpreadsProductsEvenly() {
+        ShardRouter threeShards = new ShardRouter(List.of("shard-1", "shard-2", "shard-3"));
+        int[] counts = new int[3];
+        for (int i = 0; i < 30000; i++) {
+            counts[threeShards.shardOf(UUID.randomUUID())]++;
+        }
+        for (int count : counts) {
+            assertTrue("unbalanced: " + count, count > 9000 && count < 11000);
+        }
+    }
+
+    @Test
+    public void testAddingShardOnlyMovesProductsToIt() {
+        ShardRouter before = new ShardRouter(List.of("shard-1", "shard-2", "shard-3"));
+        ShardRouter after = new ShardRouter(List.of("shard-1", "shard-2", "shard-3", "shard-4"));
+        int moved = 0;
+        for (int i = 0; i < 20000; i++) {
+            UUID id = UUID.randomUUID();
+            int shard = after.shardOf(id);
+            if (shard != before.shardOf(id)) {
+                assertEquals(3, shard);
+                moved++;
+            }
+        }
+        assertTrue("moved: " + moved, moved > 4000 && moved < 6000);
+    }
+
+    @Test
+    public void testShardOrderDoesNotMatter() {
+        ShardRouter reordered = new ShardRouter(List.of("shard-2", "shard-1"));
+        for (int i = 0; i < 1000; i++) {
+            UUID id = UUID.randomUUID();
+            assertEquals(router.name(router.shardOf(id)), reordered.name(reordered.shardOf(id)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPagesAreMergedInDatabaseOrder() {
+        // negative most significant bits, last in PostgreSQL but first for UUID.compareTo
+        UUID high = UUID.fromString("ffffffff-0000-0000-0000-000000000000");
+        UUID low = UUID.fromString("00000000-0000-0000-0000-000000000001");
+        UUID middle = UUID.fromString("80000000-0000-0000-0000-000000000000");
+        when(firstShard.query(anyString(), any(RowMapper.class), eq(2L))).thenReturn(List.of(product(low), product(high)));
+        when(secondShard.query(anyString(), any(RowMapper.class), eq(2L))).thenReturn(List.of(product(middle)));
+
+        List<Product> page = repository.findAllByOrderByIdAsc(PageRequest.of(0, 2));
+
+        assertEquals(List.of(low, middle), page.stream().map(Product::getId).toList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFindByIsbn13OnlyAsksOwningShard() {
+        UUID id = UUID.randomUUID();
+        JdbcTemplate owner = router.shardOf(id) == 0 ? firstShard : secondShard;
+        JdbcTemplate other = owner == firstShard ? secondShard : firstShard;
+        when(directory.find("9783161484100")).thenReturn(Optional.of(id));
+        when(owner.query(anyString(), any(RowMapper.class), eq(id))).thenReturn(List.of(product(id)));
+
+        assertEquals(id, repository.findByIsbn13("9783161484100").getId());
+        verifyNoInteractions(other);
+    }
+
+    @Test
+    public void testFindByIsbn13WithoutDirectoryEntry() {
+        when(directory.find("9783161484100")).thenReturn(Optional.empty());
+
+        assertNull(repository.findByIsbn13("9783161484100"));
+        verifyNoInteractions(firstShard, secondShard);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdateIsWrittenBackOnRollback() {
+        UUID id = UUID.randomUUID();
+        JdbcTemplate owner = router.shardOf(id) == 0 ? firstShard : secondShard;
+        Product changed = product(id);
+        changed.setPrice(20f);
+        when(owner.query(anyString(), any(RowMapper.class), eq(id))).thenReturn(List.of(product(id)));
+        when(owner.query(any(PreparedStatementCreator.class), any(RowMapper.class))).thenReturn(List.of(changed));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            repository.save(changed);
+            verify(owner, times(1)).query(any(PreparedStatementCreator.class), any(RowMapper.class));
+
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+            verify(owner, times(2)).query(any(PreparedStatementCreator.class), any(RowMapper.class));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRemoveStockIsUndoneOnRollback() {
+        UUID id = UUID.randomUUID();
+        JdbcTemplate owner = router.shardOf(id) == 0 ? firstShard : secondShard;
+        when(owner.query(startsWith("UPDATE products SET stock = stock - ?"), any(RowMapper.class), eq(3), eq(id), eq(3)))
+                .thenReturn(List.of(StockLevel.of(7, 0, 2)));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            assertEquals(StockLevel.of(7, 0, 2), repository.removeStock(id, 3));
+
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(owner).query(startsWith("UPDATE products SET stock = stock + ?"), any(RowMapper.class), eq(3), eq(id));
+    }
+
+    @Test
+    public void testAddStocksIsTakenBackOnRollback() throws Exception {
+        UUID id = UUID.randomUUID();
+        JdbcTemplate owner = router.shardOf(id) == 0 ? firstShard : secondShard;
+        ResultSet row = mock(ResultSet.class);
+        when(row.getObject("id", UUID.class)).thenReturn(id);
+        when(row.getInt("available")).thenReturn(15);
+        when(row.getLong("row_version")).thenReturn(3L);
+        doAnswer(invocation -> {
+            invocation.getArgument(1, RowCallbackHandler.class).processRow(row);
+            return null;
+        }).when(owner).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            assertEquals(Map.of(id, StockLevel.of(15, 0, 3)), repository.addStocks(Map.of(id, 5)));
+
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        ArgumentCaptor<PreparedStatementCreator> statements = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        verify(owner, times(2)).query(statements.capture(), any(RowCallbackHandler.class));
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(mock(PreparedStatement.class));
+        when(connection.createArrayOf(anyString(), any())).thenReturn(mock(Array.class));
+        statements.getAllValues().get(1).createPreparedStatement(connection);
+        verify(connection).createArrayOf("integer", new Integer[]{-5});
+    }
+
+    private static Product product(UUID id) {
+        return new Product(id, "isbn-" + id, "title", "1", new String[]{"author"}, null, "house", "description",
+                "en", 100, null, 10f, 1);
+    }
+
+}
@@ -0,0 +1,152 @@
+package bookstore.productservice.core.domain.service.implementation;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StockWriteBehindTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private Path directory;
+
+    private final UUID id = UUID.randomUUID();
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void testJournaledDeltasAreReplayedAfterRestart() throws IOException {
+        StockWriteBehind crashed = started(0);
+        crashed.add(id, 3);
+        crashed.add(id, 2);
+        // a record torn by the crash
+        try (Stream<Path> segments = Files.list(directory).filter(file -> file.toString().endsWith(".journal"))) {
+            Files.write(segments.findFirst().orElseThrow(), new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+        }
+
+        StockWriteBehind restarted = started(0);
+
+        assertEquals(5, restarted.pending(id));
+    }
+
+    @Test
+    public void testFlushedSegmentsAreNotReplayed() throws IOException {
+        StockWriteBehind writeBehind = started(0);
+        writeBehind.add(id, 3);
+        StockWriteBehind.Drain drain = writeBehind.drain();
+        writeBehind.flushed(drain);
+        writeBehind.add(id, 1);
+
+        StockWriteBehind restarted = started(drain.segment());
+
+        assertEquals(Map.of(id, 3), drain.deltas());
+        assertEquals(1, restarted.pending(id));
+    }
+
+    @Test
+    public void testRolledBackDeltasAreFlushedAgain() throws IOException {
+        StockWriteBehind writeBehind = started(0);
+        writeBehind.add(id, 3);
+
+        StockWriteBehind.Drain drain = writeBehind.drain();
+        assertEquals(3, writeBehind.pending(id));
+        assertNull(writeBehind.drain());
+        writeBehind.restore(drain);
+        writeBehind.add(id, 1);
+
+        assertEquals(Map.of(id, 4), writeBehind.drain().deltas());
+    }
+
+    @Test
+    public void testDrainOfOneProductLeavesTheOthersPending() throws IOException {
+        UUID other = UUID.randomUUID();
+        StockWriteBehind writeBehind = started(0);
+        writeBehind.add(id, 3);
+        writeBehind.add(other, 2);
+
+        StockWriteBehind.Drain drain = writeBehind.drain(id);
+        writeBehind.checkpoint(drain);
+        writeBehind.flushed(drain);
+
+        assertEquals(Map.of(id, 3), drain.deltas());
+        assertFalse(drain.complete());
+        verify(jdbcTemplate).update(contains("stock_journal_flushed_deltas"), any(), eq(drain.segment()), eq(id), eq(3));
+        verify(jdbcTemplate, never()).update(contains("stock_journal_checkpoints"), any(), any());
+        assertEquals(0, writeBehind.pending(id));
+        assertEquals(Map.of(other, 2), writeBehind.drain().deltas());
+    }
+
+    @Test
+    public void testDeltasFlushedForOneProductAreNotReplayed() throws IOException {
+        StockWriteBehind crashed = started(0);
+        crashed.add(id, 3);
+        crashed.add(id, 2);
+        doAnswer(invocation -> {
+            ResultSet row = mock(ResultSet.class);
+            when(row.getObject("product_id", UUID.class)).thenReturn(id);
+            when(row.getInt("delta")).thenReturn(3);
+            invocation.getArgument(1, RowCallbackHandler.class).processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(contains("stock_journal_flushed_deltas"), any(RowCallbackHandler.class), any(), eq(0L));
+
+        StockWriteBehind restarted = started(0);
+
+        assertEquals(2, restarted.pending(id));
+    }
+
+    @Test
+    public void testAwaitFlushReturnsOnceTheFlushOfTheProductCommitted() throws Exception {
+        StockWriteBehind writeBehind = started(0);
+        writeBehind.add(id, 3);
+        StockWriteBehind.Drain drain = writeBehind.drain();
+        // no new units, nothing for the product itself
+        assertNull(writeBehind.drain(id));
+
+        Thread flush = new Thread(() -> writeBehind.flushed(drain));
+        flush.start();
+        writeBehind.awaitFlush(id, Duration.ofSeconds(10));
+        flush.join();
+
+        assertEquals(0, writeBehind.pending(id));
+        writeBehind.add(id, 1);
+        assertEquals(Map.of(id, 1), writeBehind.drain().deltas());
+    }
+
+    private StockWriteBehind started(long checkpoint) throws IOException {
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), any()))
+                .thenReturn(checkpoint == 0 ? List.of() : List.of(checkpoint));
+        StockWriteBehind writeBehind = new StockWriteBehind(jdbcTemplate, directory);
+        writeBehind.replay();
+        return writeBehind;
+    }
+
+}
@@ -0,0 +1,102 @@
+package bookstore.productservice.port.product;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import bookstore.productservice.core.domain.model.OutboxEvent;
+import bookstore.productservice.core.domain.model.ProductEvent;
+import bookstore.productservice.core.domain.service.interfaces.IOutboxRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ProductEventRelayTests {
+
+    @Mock
+    private IOutboxRepository outboxRepository;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private ProductEventRelay relay;
+
+    private final List<String> published = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        relay = new ProductEventRelay();
+        relay.setOutboxRepository(outboxRepository);
+        relay.setRabbitTemplate(rabbitTemplate);
+        relay.setProductEventExchange(new TopicExchange("productservice.events"));
+        relay.setTransactionManager(transactionManager);
+        relay.setBatchSize(10);
+        relay.setConfirmTimeout(Duration.ofMillis(100));
+    }
+
+    private void confirmWith(boolean ack) {
+        doAnswer(invocation -> {
+            published.add(invocation.getArgument(1, String.class));
+            invocation.getArgument(3, CorrelationData.class).getFuture()
+                    .complete(new CorrelationData.Confirm(ack, ack ? null : "nack"));
+            return null;
+        }).when(rabbitTemplate).send(eq("productservice.events"), anyString(), any(Message.class), any(CorrelationData.class));
+    }
+
+    private static OutboxEvent event(long id, UUID productId, ProductEvent.Type type) {
+        return new OutboxEvent(id, productId, type, "{}", Instant.now());
+    }
+
+    @Test
+    public void testRelayCoalescesStockChangesAndDeletesPublishedRows() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        when(outboxRepository.lockOldest(10)).thenReturn(List.of(
+                event(1, first, ProductEvent.Type.CREATED),
+                event(2, first, ProductEvent.Type.STOCK_CHANGED),
+                event(3, second, ProductEvent.Type.STOCK_CHANGED),
+                event(4, first, ProductEvent.Type.STOCK_CHANGED)));
+        confirmWith(true);
+
+        relay.relay();
+
+        assertEquals(List.of("product.created", "product.stock-changed", "product.stock-changed"), published);
+        verify(outboxRepository).deleteByIds(List.of(1L, 2L, 3L, 4L));
+    }
+
+    @Test
+    public void testRelayKeepsRowsWhenBrokerRejects() {
+        when(outboxRepository.lockOldest(10)).thenReturn(List.of(event(1, UUID.randomUUID(), ProductEvent.Type.DELETED)));
+        confirmWith(false);
+
+        relay.relay();
+
+        assertEquals(List.of("product.deleted"), published);
+        verify(outboxRepository, never()).deleteByIds(any());
+    }
+
+    @Test
+    public void testRelayWithEmptyOutbox() {
+        when(outboxRepository.lockOldest(10)).thenReturn(List.of());
+
+        relay.relay();
+
+        verifyNoInteractions(rabbitTemplate);
+    }
+
+}
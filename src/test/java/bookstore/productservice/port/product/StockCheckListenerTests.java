@@ -0,0 +1,108 @@
+package bookstore.productservice.port.product;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import bookstore.productservice.core.domain.service.implementation.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StockCheckListenerTests {
+
+    @Mock
+    private ProductService productService;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private StockCheckListener listener;
+
+    private final UUID exact = UUID.randomUUID();
+    private final UUID scarce = UUID.randomUUID();
+    private final UUID missing = UUID.randomUUID();
+
+    @Before
+    public void setUp() {
+        listener = new StockCheckListener();
+        listener.setProductService(productService);
+        listener.setRabbitTemplate(rabbitTemplate);
+        listener.setObjectMapper(objectMapper);
+        listener.setMeterRegistry(new SimpleMeterRegistry());
+        listener.registerMeters();
+        when(rabbitTemplate.getMessageConverter()).thenReturn(new Jackson2JsonMessageConverter(objectMapper));
+    }
+
+    @Test
+    public void testMixedBatchIsAnsweredPerLine() throws IOException {
+        when(productService.getStocks(Set.of(exact, scarce, missing))).thenReturn(Map.of(exact, 5, scarce, 2));
+        Message cart = request("cart", List.of(line(exact, 5), line(scarce, 3), line(missing, 1)));
+        Message single = request("single", line(scarce, 2));
+
+        listener.checkStock(List.of(cart, single));
+
+        // all products of the batch are loaded at once
+        verify(productService, times(1)).getStocks(any());
+        ArgumentCaptor<Message> replies = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate, times(2)).send(eq(""), eq("replies"), replies.capture());
+
+        Message cartReply = replies.getAllValues().get(0);
+        assertEquals("cart", cartReply.getMessageProperties().getCorrelationId());
+        CustomReply[] cartLines = objectMapper.readValue(cartReply.getBody(), CustomReply[].class);
+        // exactly the stock that is left is enough
+        assertEquals(List.of(true, false, false), Arrays.stream(cartLines).map(CustomReply::isInStock).toList());
+        assertEquals(List.of(exact, scarce, missing), Arrays.stream(cartLines).map(CustomReply::getProductId).toList());
+
+        CustomReply singleReply = objectMapper.readValue(replies.getAllValues().get(1).getBody(), CustomReply.class);
+        assertTrue(singleReply.isInStock());
+    }
+
+    @Test
+    public void testRequestsWithoutProductAreAnsweredAsNotInStock() throws IOException {
+        when(productService.getStocks(Set.of(exact))).thenReturn(Map.of(exact, 5));
+        Message cart = request("cart", List.of(line(exact, 1), line(null, 1)));
+        Message single = request("single", line(null, 1));
+        Message unreadable = request("unreadable", "not a stock check");
+
+        listener.checkStock(List.of(cart, single, unreadable));
+
+        ArgumentCaptor<Message> replies = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate, times(3)).send(eq(""), eq("replies"), replies.capture());
+
+        CustomReply[] cartLines = objectMapper.readValue(replies.getAllValues().get(0).getBody(), CustomReply[].class);
+        assertEquals(List.of(true, false), Arrays.stream(cartLines).map(CustomReply::isInStock).toList());
+        assertFalse(objectMapper.readValue(replies.getAllValues().get(1).getBody(), CustomReply.class).isInStock());
+
+        Message unreadableReply = replies.getAllValues().get(2);
+        assertEquals("unreadable", unreadableReply.getMessageProperties().getCorrelationId());
+        assertFalse(objectMapper.readValue(unreadableReply.getBody(), CustomReply.class).isInStock());
+    }
+
+    private static CustomMessage line(UUID productId, int quantity) {
+        return new CustomMessage(productId, quantity);
+    }
+
+    private Message request(String correlationId, Object body) throws IOException {
+        MessageProperties properties = new MessageProperties();
+        properties.setCorrelationId(correlationId);
+        properties.setReplyTo("replies");
+        return new Message(objectMapper.writeValueAsBytes(body), properties);
+    }
+
+}